@@ -0,0 +1,63 @@
+package benchmarks;
+
+import audio.AudioSignal;
+import math.Complex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** The spectrum methods of AudioSignal: the Complex[] returning computeFFT() against the
+ * allocation free variants. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class AudioSignalBenchmark {
+
+    @Param({"256", "1024", "4096", "16384", "65536"})
+    public int frameSize;
+
+    private AudioSignal signal;
+    private double[] re, im;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        signal = new AudioSignal(frameSize);
+        for (int i = 0; i < frameSize; i++) {
+            signal.setSample(i, random.nextDouble() - 0.5);
+        }
+        re = new double[frameSize];
+        im = new double[frameSize];
+    }
+
+    @Benchmark
+    public Complex[] computeFFT() {
+        return signal.computeFFT();
+    }
+
+    @Benchmark
+    public double[] computeFFTInto() {
+        signal.computeFFT(re, im);
+        return re;
+    }
+
+    @Benchmark
+    public double[] computeSpectrum() {
+        signal.computeSpectrum(re, im);
+        return re;
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import math.Complex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Complex arithmetic over arrays of the sizes used by the FFTs: every operation allocates a new
+ * immutable Complex, which -prof gc shows as ~32 bytes per result unless escape analysis removes it. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ComplexBenchmark {
+
+    @Param({"256", "1024", "4096", "16384", "65536"})
+    public int size;
+
+    private Complex[] a, b;
+    private Complex[] result;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        a = new Complex[size];
+        b = new Complex[size];
+        result = new Complex[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = new Complex(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+            b[i] = new Complex(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+        }
+    }
+
+    /** Sum of the products, intermediate values only: a candidate for scalar replacement. */
+    @Benchmark
+    public Complex dotProduct() {
+        Complex sum = new Complex(0, 0);
+        for (int i = 0; i < size; i++) {
+            sum = sum.plus(a[i].times(b[i]));
+        }
+        return sum;
+    }
+
+    /** Element-wise products stored in an array, as in FFT.cconvolve: every result escapes. */
+    @Benchmark
+    public Complex[] multiply() {
+        for (int i = 0; i < size; i++) {
+            result[i] = a[i].times(b[i]);
+        }
+        return result;
+    }
+
+    /** Magnitudes and phases, as computed for a spectrum display. */
+    @Benchmark
+    public double magnitudeAndPhase() {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += a[i].abs() + a[i].phase();
+        }
+        return sum;
+    }
+}
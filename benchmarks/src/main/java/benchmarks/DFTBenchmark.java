@@ -0,0 +1,48 @@
+package benchmarks;
+
+import math.Complex;
+import math.FFT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** The O(n^2) reference FFT.dft. The default sizes stop at 4096, where one call already takes
+ * tens of milliseconds; pass -p size=16384,65536 to measure the larger ones (seconds per call). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DFTBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    private Complex[] x;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        x = new Complex[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = new Complex(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+        }
+    }
+
+    @Benchmark
+    public Complex[] dft() {
+        return FFT.dft(x);
+    }
+}
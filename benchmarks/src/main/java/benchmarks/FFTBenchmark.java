@@ -0,0 +1,95 @@
+package benchmarks;
+
+import math.Complex;
+import math.FFT;
+import math.FFTPlan;
+import math.FloatRealFFTPlan;
+import math.RealFFTPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** The Complex[] based FFT.fft and FFT.convolve against the preplanned transforms that replaced
+ * them on the hot paths. Run with -prof gc to see the allocation rate of each. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class FFTBenchmark {
+
+    @Param({"256", "1024", "4096", "16384", "65536"})
+    public int size;
+
+    private Complex[] x, y;
+    private double[] samples, re, im;
+    private float[] floatSamples, floatRe, floatIm;
+    private FFTPlan plan;
+    private RealFFTPlan realPlan;
+    private FloatRealFFTPlan floatRealPlan;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        x = new Complex[size];
+        y = new Complex[size];
+        samples = new double[size];
+        floatSamples = new float[size];
+        re = new double[size];
+        im = new double[size];
+        for (int i = 0; i < size; i++) {
+            samples[i] = random.nextDouble() - 0.5;
+            floatSamples[i] = (float) samples[i];
+            x[i] = new Complex(samples[i], 0);
+            y[i] = new Complex(random.nextDouble() - 0.5, 0);
+            re[i] = samples[i];
+        }
+        plan = FFTPlan.create(size);
+        realPlan = RealFFTPlan.create(size);
+        floatRealPlan = FloatRealFFTPlan.create(size);
+        floatRe = new float[floatRealPlan.spectrumSize()];
+        floatIm = new float[floatRealPlan.spectrumSize()];
+    }
+
+    @Benchmark
+    public Complex[] fft() {
+        return FFT.fft(x);
+    }
+
+    @Benchmark
+    public Complex[] convolve() {
+        return FFT.convolve(x, y);
+    }
+
+    /** A forward and an inverse transform, which keeps the in-place data bounded. */
+    @Benchmark
+    public double[] planRoundTrip() {
+        plan.forward(re, im);
+        plan.inverse(re, im);
+        return re;
+    }
+
+    @Benchmark
+    public double[] realPlanForward() {
+        realPlan.forward(samples, re, im);
+        return re;
+    }
+
+    @Benchmark
+    public float[] floatRealPlanForward() {
+        floatRealPlan.forward(floatSamples, floatRe, floatIm);
+        return floatRe;
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import audio.AudioSignal;
+import audio.VirtualSourceLine;
+import audio.VirtualTargetLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Sample conversion of AudioSignal.recordFrom and playTo, through free running virtual lines that
+ * only copy or discard the bytes, so that the decoding and encoding are measured. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SampleConversionBenchmark {
+
+    @Param({"256", "1024", "4096", "16384", "65536"})
+    public int frameSize;
+
+    /** Line format: 16 or 24 bit signed little endian PCM, or 32 bit float. */
+    @Param({"PCM16", "PCM24", "FLOAT32"})
+    public String encoding;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private AudioSignal signal;
+    private VirtualTargetLine input;
+    private VirtualSourceLine output;
+
+    @Setup
+    public void setup() throws LineUnavailableException {
+        AudioFormat format = switch (encoding) {
+            case "PCM16" -> new AudioFormat(44100, 16, channels, true, false);
+            case "PCM24" -> new AudioFormat(44100, 24, channels, true, false);
+            case "FLOAT32" -> new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, channels,
+                    4 * channels, 44100, false);
+            default -> throw new IllegalArgumentException("Unknown encoding: " + encoding);
+        };
+
+        // random bytes are valid integer samples; float samples are written as real values
+        byte[] data = new byte[frameSize * format.getFrameSize()];
+        Random random = new Random(1);
+        if (encoding.equals("FLOAT32")) {
+            for (int i = 0; i < data.length; i += 4) {
+                int bits = Float.floatToIntBits((float) (random.nextDouble() - 0.5));
+                data[i] = (byte) bits;
+                data[i + 1] = (byte) (bits >> 8);
+                data[i + 2] = (byte) (bits >> 16);
+                data[i + 3] = (byte) (bits >> 24);
+            }
+        } else {
+            random.nextBytes(data);
+        }
+
+        signal = new AudioSignal(frameSize, channels);
+        input = new VirtualTargetLine(format, frameSize, false, (b, off, len) -> {
+            System.arraycopy(data, 0, b, off, len);
+            return len;
+        });
+        output = VirtualSourceLine.discarding(format, false);
+        input.open();
+        input.start();
+        output.open();
+        output.start();
+    }
+
+    @Benchmark
+    public AudioSignal recordFrom() {
+        signal.recordFrom(input);
+        return signal;
+    }
+
+    @Benchmark
+    public boolean playTo() {
+        return signal.playTo(output);
+    }
+}
@@ -0,0 +1,281 @@
+package audio;
+
+import math.WindowFunction;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/** Measures the memory allocated by the current thread, and checks that the real-time path never
+ * allocates once warmed up, since every allocation brings the next garbage collection pause closer.
+ *
+ * The measure relies on com.sun.management.ThreadMXBean, available on HotSpot based JVMs; it is
+ * what the strict real-time mode of {@link AudioProcessor} uses.
+ *
+ * The test client runs an {@link AudioProcessor} on free running virtual lines with each effect in
+ * turn, then the analysis done on the UI side, for a number of warm-up blocks (and at least one
+ * second, until the JIT compiler is done: interpreted code allocates objects that compiled code
+ * keeps in registers) and then as many measured blocks. A case in which some blocks allocated is run
+ * again, since a late recompilation may allocate once, and the audit fails if it allocates again:
+ * java -cp out audio.AllocationAudit [blocks]
+ */
+public final class AllocationAudit {
+    private static final com.sun.management.ThreadMXBean THREADS = load();
+
+    private static final float SAMPLE_RATE = 44100;
+    private static final int FRAME_SIZE = 1024;
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    private final int blocks;
+    private int failures;
+
+    private AllocationAudit(int blocks) {
+        this.blocks = blocks;
+    }
+
+    private static com.sun.management.ThreadMXBean load() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            try {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /** @return true if this JVM measures the memory allocated by each thread */
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    /** Returns the total number of bytes allocated by the calling thread so far, without
+     * allocating. Only differences between two calls are meaningful.
+     * @throws UnsupportedOperationException if isSupported() is false */
+    public static long currentThreadAllocatedBytes() {
+        if (THREADS == null) throw new UnsupportedOperationException("This JVM does not measure thread allocations");
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    // runs an audio processor with one effect per channel, built by the factory (null for none)
+    private void processor(String name, int channels, Supplier<? extends AudioEffect> factory) throws Exception {
+        processor(name, channels, factory, processor -> { }, processor -> { });
+    }
+
+    // same as above, prepare being called before processing starts and during being called every
+    // millisecond while the blocks are measured
+    private void processor(String name, int channels, Supplier<? extends AudioEffect> factory,
+                           Action prepare, Action during) throws Exception {
+        audit(name, () -> runProcessor(channels, factory, prepare, during));
+    }
+
+    private Result runProcessor(int channels, Supplier<? extends AudioEffect> factory,
+                                Action prepare, Action during) throws Exception {
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, channels, true, false);
+        VirtualTargetLine input = VirtualTargetLine.sine(format, 440, 0.5, false);
+        VirtualSourceLine output = VirtualSourceLine.discarding(format, false);
+        open(input, output);
+
+        AudioProcessor processor = new AudioProcessor(input, output, FRAME_SIZE);
+        processor.setEffect(factory);
+        processor.setStrictRealTime(true); // from the start, for the JIT compiler to see it
+        prepare.run(processor);
+        Thread thread = new Thread(processor, "audio-processor");
+        thread.setDaemon(true);
+        thread.start();
+
+        ProcessingStats stats = processor.getStats();
+        long warmup = System.nanoTime() + WARMUP_NANOS;
+        while (stats.getBlocks() < blocks || System.nanoTime() < warmup) {
+            Thread.sleep(1);
+        }
+        long start = stats.getBlocks();
+        long allocatingBlocks = stats.getAllocatingBlocks(), allocatedBytes = stats.getAllocatedBytes();
+        while (stats.getBlocks() < start + blocks) {
+            during.run(processor);
+            Thread.sleep(1);
+        }
+        processor.terminateAudioThread();
+        thread.join();
+        input.close();
+        output.close();
+
+        return new Result(stats.getBlocks() - start, stats.getAllocatingBlocks() - allocatingBlocks,
+                stats.getAllocatedBytes() - allocatedBytes);
+    }
+
+    private static void open(VirtualTargetLine input, VirtualSourceLine output) throws LineUnavailableException {
+        input.open();
+        output.open();
+        input.start();
+        output.start();
+    }
+
+    // runs one block of analysis on the calling thread, warm-up blocks first
+    private void analysis(String name, Runnable block) throws Exception {
+        audit(name, () -> runAnalysis(block));
+    }
+
+    private Result runAnalysis(Runnable block) {
+        long warmup = System.nanoTime() + WARMUP_NANOS;
+        for (int i = 0; i < blocks || System.nanoTime() < warmup; i++) {
+            block.run();
+        }
+        long allocatingBlocks = 0, allocatedBytes = 0;
+        for (int i = 0; i < blocks; i++) {
+            long allocated = currentThreadAllocatedBytes();
+            block.run();
+            allocated = currentThreadAllocatedBytes() - allocated;
+            if (allocated > 0) {
+                allocatingBlocks++;
+                allocatedBytes += allocated;
+            }
+        }
+        return new Result(blocks, allocatingBlocks, allocatedBytes);
+    }
+
+    // measures a case, a second time if it allocated, and prints the last result
+    private void audit(String name, Measure measure) throws Exception {
+        Result result = measure.run();
+        if (result.allocatingBlocks > 0) {
+            System.out.printf("%-28s %d allocating blocks (%d bytes), running it again%n", name,
+                    result.allocatingBlocks, result.allocatedBytes);
+            result = measure.run();
+        }
+        System.out.printf("%-28s %6d blocks, %4d allocating (%d bytes)%s%n", name, result.blocks,
+                result.allocatingBlocks, result.allocatedBytes, result.allocatingBlocks > 0 ? "  FAILED" : "");
+        if (result.allocatingBlocks > 0) failures++;
+    }
+
+    /** Measured blocks of one case. */
+    private static final class Result {
+        final long blocks, allocatingBlocks, allocatedBytes;
+
+        Result(long blocks, long allocatingBlocks, long allocatedBytes) {
+            this.blocks = blocks;
+            this.allocatingBlocks = allocatingBlocks;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    /** Runs one case. */
+    private interface Measure {
+        Result run() throws Exception;
+    }
+
+    /** Something done with a processor. */
+    private interface Action {
+        void run(AudioProcessor processor) throws Exception;
+    }
+
+    // Hann windowed sinc low-pass filter, as in the user interface
+    private static double[] lowPass(double cutoff, int taps) {
+        double[] filter = new double[taps];
+        double fc = cutoff / SAMPLE_RATE;
+        for (int i = 0; i < taps; i++) {
+            double x = i - (taps - 1) / 2.0;
+            double sinc = x == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * x) / (Math.PI * x);
+            filter[i] = sinc * (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (taps - 1)));
+        }
+        return filter;
+    }
+
+    // exponentially decaying noise, as in the user interface
+    private static double[] hall(double seconds) {
+        double[] impulseResponse = new double[(int) (SAMPLE_RATE * seconds)];
+        Random random = new Random(1);
+        for (int i = 0; i < impulseResponse.length; i++) {
+            impulseResponse[i] = random.nextGaussian() * Math.exp(-6.9 * i / impulseResponse.length);
+        }
+        return impulseResponse;
+    }
+
+    private static ParametricEqualizer equalizer() {
+        ParametricEqualizer eq = new ParametricEqualizer(4, SAMPLE_RATE);
+        eq.setBand(0, Biquad.Type.HIGH_PASS, 60, 0.707, 0);
+        eq.setBand(1, Biquad.Type.LOW_SHELF, 200, 0.707, 4);
+        eq.setBand(2, Biquad.Type.PEAKING, 3000, 1.5, -3);
+        eq.setBand(3, Biquad.Type.HIGH_SHELF, 8000, 0.707, 2);
+        return eq;
+    }
+
+    /** Test client: audits every effect and analysis step.
+     * @param args the number of warm-up and of measured blocks of each case, 5000 by default */
+    public static void main(String[] args) throws Exception {
+        if (!isSupported()) {
+            System.out.println("This JVM does not measure thread allocations");
+            return;
+        }
+        AllocationAudit audit = new AllocationAudit(args.length > 0 ? Integer.parseInt(args[0]) : 5000);
+        double[] lowPass = lowPass(1000, 255);
+        double[] hall = hall(1.5);
+
+        // the audio thread, through the strict real-time mode of the processor
+        audit.processor("bypass", 2, null);
+        audit.processor("gain", 2, () -> new GainEffect(-12));
+        audit.processor("equalizer", 2, AllocationAudit::equalizer);
+        audit.processor("biquad cascade", 2, () -> {
+            BiquadCascade cascade = new BiquadCascade(2, SAMPLE_RATE);
+            cascade.setBand(0, Biquad.design(Biquad.Type.LOW_PASS, 5000, 0.707, 0, SAMPLE_RATE));
+            cascade.setBand(1, Biquad.design(Biquad.Type.NOTCH, 50, 10, 0, SAMPLE_RATE));
+            return cascade;
+        });
+        audit.processor("FIR overlap-add", 2,
+                () -> new BlockConvolver(lowPass, FRAME_SIZE, BlockConvolver.Mode.OVERLAP_ADD));
+        audit.processor("FIR overlap-save", 2,
+                () -> new BlockConvolver(lowPass, FRAME_SIZE, BlockConvolver.Mode.OVERLAP_SAVE));
+        audit.processor("reverb", 2, () -> new ConvolutionReverb(hall, FRAME_SIZE));
+        audit.processor("level meter", 2, LevelMeter::new);
+        audit.processor("low-pass + reverb chain", 2, () -> new EffectChain(
+                new BlockConvolver(lowPass, FRAME_SIZE, BlockConvolver.Mode.OVERLAP_SAVE),
+                new ConvolutionReverb(hall, FRAME_SIZE)));
+        audit.processor("monitor at 16 kHz", 2, null, processor -> {
+            processor.setMonitorBuffer(new SampleRingBuffer(1 << 16));
+            processor.setMonitorRate(16000);
+        }, processor -> { });
+        // swapping prebuilt effects: only the crossfade runs on the audio thread
+        MultichannelEffect gain = MultichannelEffect.of(2, () -> new GainEffect(-6));
+        MultichannelEffect eq = MultichannelEffect.of(2, AllocationAudit::equalizer);
+        audit.processor("effect swaps", 2, null, processor -> { },
+                processor -> processor.setEffect(processor.getEffect() == gain ? eq : gain));
+        ForkJoinPool channelPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        audit.processor("8 channels in parallel", 8, AllocationAudit::equalizer,
+                processor -> processor.setChannelPool(channelPool), processor -> { });
+        channelPool.shutdown();
+
+        // the analysis of the monitored samples and of recorded signals
+        SampleRingBuffer monitor = new SampleRingBuffer(1 << 16);
+        double[] samples = new double[FRAME_SIZE];
+        audit.analysis("monitor buffer", () -> {
+            monitor.write(samples, 0, samples.length);
+            monitor.read(samples, 0, samples.length);
+        });
+        StreamingSTFT stft = new StreamingSTFT(2048, 256, WindowFunction.HANN);
+        StreamingSTFT.FrameListener listener = magnitudes -> { };
+        audit.analysis("STFT", () -> stft.push(samples, 0, samples.length, listener));
+        AudioSignal signal = new AudioSignal(FRAME_SIZE, 2), copy = new AudioSignal(FRAME_SIZE, 2);
+        double[] re = new double[FRAME_SIZE], im = new double[FRAME_SIZE];
+        audit.analysis("signal copy and level", () -> {
+            copy.setFrom(signal);
+            copy.updatedBlevel();
+        });
+        audit.analysis("signal FFT", () -> signal.computeFFT(re, im));
+        float[] floatIn = new float[FRAME_SIZE], floatOut = new float[FRAME_SIZE];
+        BlockConvolver floatConvolver = new BlockConvolver(lowPass, FRAME_SIZE, BlockConvolver.Mode.OVERLAP_SAVE,
+                Precision.FLOAT);
+        audit.analysis("float FIR", () -> floatConvolver.process(floatIn, floatOut, FRAME_SIZE));
+
+        if (audit.failures > 0) {
+            throw new AssertionError(audit.failures + " cases allocate once warmed up");
+        }
+        System.out.println("No allocation once warmed up");
+    }
+}
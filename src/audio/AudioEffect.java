@@ -0,0 +1,33 @@
+package audio;
+
+/** An audio effect processing one block of samples at a time on the audio thread.
+ *
+ * Implementations must not allocate, lock or block in process(), and must accept in and out
+ * being the same array so that effects can be chained in place (see {@link EffectChain}).
+ * Parameters changed from other threads should be read once per block, e.g. from volatile fields.
+ *
+ * Example of use:
+ * AudioEffect effect = new EffectChain(new GainEffect(-6), reverb);
+ * effect.process(in, out, 1024);
+ */
+public interface AudioEffect {
+
+    /** Processes in[0..n-1] into out[0..n-1]. in and out may be the same array.
+     * @param n the number of samples; effects built for a fixed block size require exactly that size */
+    void process(double[] in, double[] out, int n);
+
+    /** Single precision version of process(double[], double[], int), used by {@link Precision#FLOAT}
+     * pipelines. Only available when supportsFloat() returns true. */
+    default void process(float[] in, float[] out, int n) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no single precision path");
+    }
+
+    /** @return true if process(float[], float[], int) is implemented */
+    default boolean supportsFloat() {
+        return false;
+    }
+
+    /** Forgets any internal state, e.g. a reverb tail or filter memory. */
+    default void reset() {
+    }
+}
@@ -19,10 +19,11 @@ public class AudioIO {
             + "\" description=\"" + e.getDescription() + " by " + e.getVendor() + "\""));
     }
 
-    /** @return a Mixer.Info whose name best matches the given string.
+    /** @return a Mixer.Info whose name best matches the given string, or null (the default mixer) if mixerName is null.
      * Example of use: getMixerInfo("Macbook default output")
      */
     public static Mixer.Info getMixerInfo(String mixerName) {
+        if (mixerName == null) return null;
         Mixer.Info[] mixerInfos = AudioSystem.getMixerInfo();
 
         Mixer.Info bestMatch = null;
@@ -75,6 +76,12 @@ public class AudioIO {
      * @see AudioSystem.getMixerInfo() which provides a list of all mixers on your system.
      */
     public static TargetDataLine obtainAudioInput(String mixerName, int sampleRate) {
+        return obtainAudioInput(mixerName, sampleRate, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /** Same as obtainAudioInput(mixerName, sampleRate), with a line buffer of the given size.
+     * @param bufferFrames the buffer size in frames, AudioSystem.NOT_SPECIFIED for the driver default */
+    public static TargetDataLine obtainAudioInput(String mixerName, int sampleRate, int bufferFrames) {
         int channels = 2;
         int sampleBytes = 2; // 16-bit audio, i.e., 2 bytes
         int frameBytes = sampleBytes * channels;
@@ -91,7 +98,11 @@ public class AudioIO {
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
             Mixer mixer = AudioSystem.getMixer(getMixerInfo(mixerName));
             TargetDataLine line = (TargetDataLine) mixer.getLine(info);
-            line.open(format);
+            if (bufferFrames > 0) {
+                line.open(format, bufferFrames * frameBytes);
+            } else {
+                line.open(format);
+            }
             return line;
         } catch (Exception e) {
             e.printStackTrace();
@@ -101,6 +112,12 @@ public class AudioIO {
 
     /** Return a line that's appropriate for playing sound to a loudspeaker. */
     public static SourceDataLine obtainAudioOutput(String mixerName, int sampleRate) {
+        return obtainAudioOutput(mixerName, sampleRate, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /** Same as obtainAudioOutput(mixerName, sampleRate), with a line buffer of the given size.
+     * @param bufferFrames the buffer size in frames, AudioSystem.NOT_SPECIFIED for the driver default */
+    public static SourceDataLine obtainAudioOutput(String mixerName, int sampleRate, int bufferFrames) {
         int channels = 2;
         int sampleBytes = Short.SIZE / 8;
         int frameBytes = sampleBytes * channels;
@@ -117,7 +134,11 @@ public class AudioIO {
             DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
             Mixer mixer = AudioSystem.getMixer(getMixerInfo(mixerName));
             SourceDataLine line = (SourceDataLine) mixer.getLine(info);
-            line.open(format);
+            if (bufferFrames > 0) {
+                line.open(format, bufferFrames * frameBytes);
+            } else {
+                line.open(format);
+            }
             return line;
         } catch (Exception e) {
             e.printStackTrace();
@@ -2,47 +2,190 @@ package audio;
 
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /** The main audio processing class, implemented as a Runnable so
- * as to be run in a separated execution Thread. */
+ * as to be run in a separated execution Thread.
+ *
+ * Signals have as many planar channels as the input line. Each block is run through the current
+ * {@link MultichannelEffect}, one effect instance per channel, which any thread may replace with
+ * setEffect(). The audio thread picks the new effect up at the next block boundary and crossfades
+ * from the old one over that block, so swapping never takes a lock nor clicks. With a channel pool
+ * set, the channels of each block are processed in parallel.
+ *
+ * The copy published to the monitor buffer can be converted to a lower rate by a {@link Resampler},
+ * so that analysis (spectrogram, levels) handles fewer samples.
+ *
+ * Every block is timed into the {@link ProcessingStats} of the processor, stage by stage, along with
+ * deadline misses and device overruns and underruns, so that glitches can be traced to their cause.
+ *
+ * Without pre-roll, each block is played just as the previous one ends, and any late block is an
+ * underrun. setPreRoll() writes silent blocks ahead to the output, at start and after an
+ * underrun, so that processing may be late by as many blocks, at the cost of as much latency.
+ *
+ * Once warmed up, a block should not allocate any memory, since garbage collection pauses the audio
+ * thread. In strict real-time mode (setStrictRealTime(), or -Daudio.strictRealTime=true for every
+ * processor), the memory allocated by the audio thread is measured around each block, and blocks
+ * that allocated are counted in the stats. {@link AllocationAudit} checks every effect this way. */
 public class AudioProcessor implements Runnable {
+    private static final boolean STRICT_REAL_TIME = Boolean.getBoolean("audio.strictRealTime")
+            && AllocationAudit.isSupported();
 
     private AudioSignal inputSignal, outputSignal;
     private TargetDataLine audioInput;
     private SourceDataLine audioOutput;
-    private boolean isThreadRunning; // makes it possible to "terminate" thread
+    private volatile boolean isThreadRunning; // makes it possible to "terminate" thread
+    private volatile SampleRingBuffer monitorBuffer; // receives a copy of the output for the UI, if any
+    private final AtomicReference<MultichannelEffect> effect;
+    private final double[][] fadeBuffers; // output of the outgoing effect during a swap
+    private final double[] monitorMix;    // channels mixed down for the monitor buffer
+    private volatile ForkJoinPool channelPool; // processes channels in parallel, if not null
+    private volatile Resampler monitorResampler; // converts the monitor copy to another rate, if not null
+    private double[] monitorResampled = new double[0]; // output of monitorResampler, only grows
+    private volatile ProcessingStats stats;
+    private volatile int preRoll;       // silent blocks written ahead to the output
+    private final AudioSignal silence;  // what is written ahead
+    private volatile boolean strictRealTime = STRICT_REAL_TIME; // counts the blocks that allocate
 
     /** Creates an AudioProcessor that takes input from the given TargetDataLine, and plays back
-     * to the given SourceDataLine.
+     * to the given SourceDataLine, with as many channels as the input line.
      * @param frameSize the size of the audio buffer. The shorter, the lower the latency. */
     public AudioProcessor(TargetDataLine audioInput, SourceDataLine audioOutput, int frameSize) {
+        this(audioInput, audioOutput, frameSize, audioInput.getFormat().getChannels());
+    }
+
+    /** Creates an AudioProcessor processing the given number of channels, mapped to and from the
+     * line channels as described in {@link AudioSignal#recordFrom(TargetDataLine)}. */
+    public AudioProcessor(TargetDataLine audioInput, SourceDataLine audioOutput, int frameSize, int channels) {
         this.audioInput = audioInput;
         this.audioOutput = audioOutput;
-        this.inputSignal = new AudioSignal(frameSize);
-        this.outputSignal = new AudioSignal(frameSize);
+        this.inputSignal = new AudioSignal(frameSize, channels);
+        this.outputSignal = new AudioSignal(frameSize, channels);
+        this.fadeBuffers = new double[channels][frameSize];
+        this.monitorMix = new double[frameSize];
+        this.silence = new AudioSignal(frameSize, channels);
+        this.effect = new AtomicReference<>(bypass(channels));
+        this.stats = new ProcessingStats(frameSize / audioInput.getFormat().getSampleRate());
+
+        inputSignal.prepareCodec(audioInput.getFormat());
+        if (audioOutput != null) {
+            outputSignal.prepareCodec(audioOutput.getFormat());
+            silence.prepareCodec(audioOutput.getFormat());
+        }
     }
 
     /** Audio processing thread code. Basically an infinite loop that continuously fills the sample
-     * buffer with audio data fed by a TargetDataLine and then applies some audio effect, if any,
+     * buffer with audio data fed by a TargetDataLine and then applies the current audio effect,
      * and finally copies data back to a SourceDataLine.*/
     @Override
     public void run() {
         isThreadRunning = true;
+        MultichannelEffect current = effect.get();
+        boolean playing = false; // the output buffer starts empty, which is not an underrun
+        writeAhead();
         while (isThreadRunning) {
+            ProcessingStats stats = this.stats;
+            boolean strict = strictRealTime;
+            long allocated = strict ? AllocationAudit.currentThreadAllocatedBytes() : 0;
+
+            // Java Sound reports no xruns: a full input buffer means that the device is dropping
+            // samples, an empty output buffer once playing means that it ran out of them. Lines
+            // stopped and flushed by terminateAudioThread() callers are not xruns, hence the flag
+            // being read after the line state
+            if (isFull(audioInput) && isThreadRunning) stats.countOverrun();
+            long start = System.nanoTime();
             inputSignal.recordFrom(audioInput);
+            long captured = System.nanoTime();
+            stats.record(ProcessingStats.Stage.CAPTURE, captured - start);
 
-            // your job: copy inputSignal to outputSignal with some audio effect
+            double[][] in = inputSignal.getChannelBuffers();
+            double[][] out = outputSignal.getChannelBuffers();
+            int n = inputSignal.getFrameSize();
+            ForkJoinPool pool = channelPool;
 
-            // TODO: Apply your audio processing effect here
-            // For example, you might implement a method like applyAudioEffect() in AudioSignal
+            MultichannelEffect next = effect.get();
+            if (next == current) {
+                current.process(in, out, n, pool);
+            } else {
+                // run both effects on this block and fade from the old output to the new one
+                current.process(in, fadeBuffers, n, pool);
+                next.process(in, out, n, pool);
+                for (int c = 0; c < out.length; c++) {
+                    double[] fade = fadeBuffers[c], o = out[c];
+                    for (int i = 0; i < n; i++) {
+                        double t = (i + 1.0) / n;
+                        o[i] = fade[i] + t * (o[i] - fade[i]);
+                    }
+                }
+                current = next;
+            }
+            long processed = System.nanoTime();
+            stats.record(ProcessingStats.Stage.PROCESS, processed - captured);
 
-            // Copy inputSignal to outputSignal (placeholder, replace with actual processing)
-            outputSignal.setFrom(inputSignal);
+            if (playing && isEmpty(audioOutput) && isThreadRunning) {
+                stats.countUnderrun();
+                writeAhead(); // the device is playing silence anyway, restore the margin
+            }
+            playing = outputSignal.playTo(audioOutput);
+            long played = System.nanoTime();
+            stats.record(ProcessingStats.Stage.PLAYBACK, played - processed);
 
-            outputSignal.playTo(audioOutput);
+            // publish the processed block to the UI without ever waiting for it
+            SampleRingBuffer monitor = monitorBuffer;
+            if (monitor != null) {
+                double[] mix = mixdown(out, n);
+                Resampler resampler = monitorResampler;
+                if (resampler == null) {
+                    monitor.write(mix, 0, n);
+                } else {
+                    double[] resampled = monitorResampled;
+                    int produced = resampler.process(mix, 0, n, resampled, 0);
+                    monitor.write(resampled, 0, produced);
+                }
+            }
+            stats.record(ProcessingStats.Stage.MONITOR, System.nanoTime() - played);
+
+            if (strict) {
+                allocated = AllocationAudit.currentThreadAllocatedBytes() - allocated;
+                if (allocated > 0) stats.countAllocation(allocated);
+            }
         }
     }
 
+    private void writeAhead() {
+        for (int i = preRoll; i > 0; i--) {
+            silence.playTo(audioOutput);
+        }
+    }
+
+    private static boolean isFull(TargetDataLine line) {
+        int size = line.getBufferSize();
+        return size > 0 && line.available() >= size;
+    }
+
+    private static boolean isEmpty(SourceDataLine line) {
+        int size = line.getBufferSize();
+        return size > 0 && line.available() >= size;
+    }
+
+    // the only channel, or the average of all channels in monitorMix
+    private double[] mixdown(double[][] channels, int n) {
+        if (channels.length == 1) return channels[0];
+        double scale = 1.0 / channels.length;
+        for (int i = 0; i < n; i++) {
+            double sum = 0;
+            for (double[] channel : channels) sum += channel[i];
+            monitorMix[i] = sum * scale;
+        }
+        return monitorMix;
+    }
+
+    private static MultichannelEffect bypass(int channels) {
+        return MultichannelEffect.of(channels, EffectChain::new);
+    }
+
     /** Tells the thread loop to break as soon as possible. This is an asynchronous process. */
     public void terminateAudioThread() {
         isThreadRunning = false;
@@ -83,6 +226,116 @@ public class AudioProcessor implements Runnable {
         this.audioOutput = audioOutput;
     }
 
+    public int getChannels() {
+        return inputSignal.getChannels();
+    }
+
+    public MultichannelEffect getEffect() {
+        return effect.get();
+    }
+
+    /** Replaces the effect applied to every block. May be called from any thread; the new effect
+     * must not share stateful instances with the current one, since both run during the swap.
+     * @param effect one effect per channel, processing blocks of the frame size given to the
+     * constructor, or null for none */
+    public void setEffect(MultichannelEffect effect) {
+        if (effect != null && effect.getChannels() != getChannels()) {
+            throw new IllegalArgumentException("The effect has " + effect.getChannels()
+                    + " channels, not " + getChannels());
+        }
+        this.effect.set(effect != null ? effect : bypass(getChannels()));
+    }
+
+    /** Replaces the effect applied to every block with one new instance per channel, built by
+     * the factory on the calling thread.
+     * @param factory builds effects processing blocks of the frame size, or null for none */
+    public void setEffect(Supplier<? extends AudioEffect> factory) {
+        setEffect(factory != null ? MultichannelEffect.of(getChannels(), factory) : null);
+    }
+
+    public ForkJoinPool getChannelPool() {
+        return channelPool;
+    }
+
+    /** Sets the pool processing the channels of each block in parallel, null to process them on
+     * the audio thread. Worth it for many channels or heavy effects only. The pool should be
+     * dedicated to the audio: when its workers are busy with other tasks, the audio thread
+     * processes the channels itself (see {@link MultichannelEffect}). */
+    public void setChannelPool(ForkJoinPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    public SampleRingBuffer getMonitorBuffer() {
+        return monitorBuffer;
+    }
+
+    /** Sets the ring buffer receiving a copy of every processed block, e.g. for display.
+     * The audio thread is its only producer. */
+    public void setMonitorBuffer(SampleRingBuffer monitorBuffer) {
+        this.monitorBuffer = monitorBuffer;
+    }
+
+    /** @return the sample rate of the samples published to the monitor buffer */
+    public double getMonitorRate() {
+        Resampler resampler = monitorResampler;
+        return resampler != null ? resampler.getOutputRate() : audioInput.getFormat().getSampleRate();
+    }
+
+    /** Sets the sample rate of the samples published to the monitor buffer, e.g. 16000 Hz for
+     * analysis. Must not be called concurrently with itself.
+     * @param rate the rate in Hz, or 0 for the rate of the input line */
+    public void setMonitorRate(double rate) {
+        double inputRate = audioInput.getFormat().getSampleRate();
+        if (rate <= 0 || rate == inputRate) {
+            monitorResampler = null;
+            return;
+        }
+        Resampler resampler = new Resampler(inputRate, rate);
+        int length = resampler.maxOutput(inputSignal.getFrameSize());
+        if (monitorResampled.length < length) {
+            monitorResampled = new double[length];
+        }
+        monitorResampler = resampler; // publishes monitorResampled too
+    }
+
+    public ProcessingStats getStats() {
+        return stats;
+    }
+
+    /** Replaces the stats receiving the timings of the following blocks, e.g. to keep the same
+     * registered MBeans across processors. */
+    public void setStats(ProcessingStats stats) {
+        if (stats == null) throw new IllegalArgumentException("The stats must not be null");
+        this.stats = stats;
+    }
+
+    public int getPreRoll() {
+        return preRoll;
+    }
+
+    /** Sets the number of silent blocks written ahead to the output when processing starts and
+     * after each underrun. The output line buffer must hold preRoll + 1 blocks. */
+    public void setPreRoll(int preRoll) {
+        if (preRoll < 0) throw new IllegalArgumentException("The pre-roll must not be negative");
+        this.preRoll = preRoll;
+    }
+
+    public boolean isStrictRealTime() {
+        return strictRealTime;
+    }
+
+    /** Enables or disables the counting of the blocks during which the audio thread allocates
+     * memory, from the next block on. Allocations made by the threads of the channel pool are not
+     * measured.
+     * @throws UnsupportedOperationException if this JVM cannot measure the memory allocated by a
+     * thread */
+    public void setStrictRealTime(boolean strictRealTime) {
+        if (strictRealTime && !AllocationAudit.isSupported()) {
+            throw new UnsupportedOperationException("This JVM does not measure thread allocations");
+        }
+        this.strictRealTime = strictRealTime;
+    }
+
     public boolean isThreadRunning() {
         return isThreadRunning;
     }
@@ -110,6 +363,7 @@ public class AudioProcessor implements Runnable {
 
                 // Terminate the audio thread
                 audioProcessor.terminateAudioThread();
+                System.out.println(audioProcessor.getStats());
 
                 // Close the lines
                 inLine.close();
@@ -1,18 +1,26 @@
 package audio;
 
 import math.Complex;
-import math.FFT;
+import math.RealFFTPlan;
 
 import javax.sound.sampled.*;
-import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 
-/** A container for an audio signal backed by a double buffer so as to allow floating point calculation
- * for signal processing and avoid saturation effects. Samples are 16 bit wide in this implementation. */
+/** A container for an audio signal backed by double buffers so as to allow floating point calculation
+ * for signal processing and avoid saturation effects. Samples are converted from and to the format of
+ * the data lines with a {@link PCMCodec}, reusing the same byte buffer for every block.
+ *
+ * Multichannel signals are planar: each channel has its own sample buffer, deinterleaved from the
+ * line bytes by the codec, so that effects and analyzers work on one contiguous channel at a time.
+ * The single channel methods (getSampleBuffer(), getSample()...) refer to the first channel. */
 public class AudioSignal {
-    private double[] sampleBuffer; // floating point representation of audio samples
+    private double[][] channelBuffers; // floating point representation of audio samples, one buffer per channel
+    private double[] sampleBuffer; // first channel
     private double dBlevel; // current signal level
     private int frameSize;
+    private RealFFTPlan fftPlan; // cached for the current buffer length
+    private PCMCodec codec;      // cached for the format of the last line used
+    private byte[] byteBuffer;   // raw bytes of the last block read or written
 
     public static void main(String[] args) {
         // Define the frame size (number of samples in one audio frame)
@@ -44,35 +52,82 @@ public class AudioSignal {
         }
     }
 
-    /** Construct an AudioSignal that may contain up to "frameSize" samples.
+    /** Construct a mono AudioSignal that may contain up to "frameSize" samples.
      * @param frameSize the number of samples in one audio frame */
     public AudioSignal(int frameSize) {
+        this(frameSize, 1);
+    }
+
+    /** Construct an AudioSignal with the given number of channels of "frameSize" samples each. */
+    public AudioSignal(int frameSize, int channels) {
+        if (channels < 1) throw new IllegalArgumentException("At least one channel is needed");
         this.frameSize = frameSize;
+        this.channelBuffers = new double[channels][frameSize];
+        this.sampleBuffer = channelBuffers[0];
     }
 
-    /** Sets the content of this signal from another signal.
-     * @param other other.length must not be lower than the length of this signal. */
+    /** Sets the content of this signal from another signal, with the same number of channels.
+     * The buffers are reused when they already have the right shape, so copying between signals
+     * of the same size never allocates. */
     public void setFrom(AudioSignal other) {
         frameSize = other.getFrameSize();
         dBlevel = other.getdBlevel();
-        sampleBuffer = Arrays.copyOf(other.getSampleBuffer(), frameSize);
+        if (channelBuffers.length != other.getChannels() || sampleBuffer.length != frameSize) {
+            channelBuffers = new double[other.getChannels()][frameSize];
+            sampleBuffer = channelBuffers[0];
+        }
+        for (int c = 0; c < channelBuffers.length; c++) {
+            System.arraycopy(other.getChannelBuffer(c), 0, channelBuffers[c], 0, frameSize);
+        }
     }
 
-    /** Fills the buffer content from the given input. Byte's are converted on the fly to double's.
+    /** Fills the buffers from the given input. Bytes are decoded on the fly according to the line
+     * format: each line channel goes to the channel of the same index, a mono signal receives the
+     * mix of all line channels, and extra signal channels repeat the line channels.
      * @return false if at end of stream */
     public boolean recordFrom(TargetDataLine audioInput) {
-        byte[] byteBuffer = new byte[sampleBuffer.length*2]; // 16 bit samples
-
-        if (audioInput.read(byteBuffer, 0, byteBuffer.length)==-1) return false;
-
-        for (int i=0; i<sampleBuffer.length; i++)
-            sampleBuffer[i] = ((byteBuffer[2*i]<<8)+byteBuffer[2*i+1]) / 32768.0; // big endian
+        prepareCodec(audioInput.getFormat());
+        int frameBytes = codec.getFrameBytes();
+
+        int bytesRead = audioInput.read(byteBuffer, 0, frameSize * frameBytes);
+        if (bytesRead == -1) return false;
+
+        // a stopped line may return a short block, the rest is silence
+        int frames = bytesRead / frameBytes;
+        int lineChannels = codec.getChannels();
+        if (channelBuffers.length == 1 && lineChannels > 1) {
+            codec.decodeMixdown(byteBuffer, 0, sampleBuffer, 0, frames);
+        } else {
+            for (int c = 0; c < channelBuffers.length; c++) {
+                codec.decodeChannel(byteBuffer, 0, c % lineChannels, channelBuffers[c], 0, frames);
+            }
+        }
+        for (double[] channel : channelBuffers) {
+            Arrays.fill(channel, frames, frameSize, 0.0);
+        }
 
-        dBlevel = 20*Math.log(Arrays.stream(sampleBuffer).sum()/sampleBuffer.length);
+        updatedBlevel();
         return true;
     }
 
-    /** Plays the buffer content to the given output.
+    /** Recomputes the signal level from the current samples of all channels, as an RMS level in
+     * dB full scale.
+     * @return the new signal level */
+    public double updatedBlevel() {
+        double sum = 0;
+        for (double[] channel : channelBuffers) {
+            for (int i = 0; i < frameSize; i++) {
+                sum += channel[i] * channel[i];
+            }
+        }
+        // the small offset keeps silence at a finite level
+        dBlevel = 10 * Math.log10(sum / ((double) frameSize * channelBuffers.length) + 1e-12);
+        return dBlevel;
+    }
+
+    /** Plays the buffer content to the given output, encoded according to the line format. Each line
+     * channel receives the signal channel of the same index, repeating the signal channels if the
+     * line has more of them.
      * @return false if at end of stream */
     public boolean playTo(SourceDataLine audioOutput) {
         if (audioOutput == null) {
@@ -80,25 +135,76 @@ public class AudioSignal {
             return false;
         }
 
-        byte[] byteBuffer = new byte[sampleBuffer.length * 2]; // 16 bit samples
-
-        for (int i = 0; i < sampleBuffer.length; i++) {
-            short sampleValue = (short) (sampleBuffer[i] * 32767.0); // Convert double to short
-            byteBuffer[2 * i] = (byte) (sampleValue & 0xFF); // Little endian
-            byteBuffer[2 * i + 1] = (byte) ((sampleValue >> 8) & 0xFF);
+        prepareCodec(audioOutput.getFormat());
+        int length = frameSize * codec.getFrameBytes();
+        if (channelBuffers.length == 1) {
+            codec.encodeReplicated(sampleBuffer, 0, byteBuffer, 0, frameSize);
+        } else {
+            for (int c = 0; c < codec.getChannels(); c++) {
+                codec.encodeChannel(channelBuffers[c % channelBuffers.length], 0, byteBuffer, 0, c, frameSize);
+            }
         }
 
-        int bytesWritten = audioOutput.write(byteBuffer, 0, byteBuffer.length);
+        int bytesWritten = audioOutput.write(byteBuffer, 0, length);
+
+        return bytesWritten == length;
+    }
 
-        return bytesWritten == byteBuffer.length;
+    // (re)creates the codec and byte buffer when the line format or the frame size changes, called
+    // ahead by AudioProcessor so that its first block does not allocate either
+    void prepareCodec(AudioFormat format) {
+        if (codec == null || (codec.getFormat() != format && !codec.getFormat().matches(format))) {
+            codec = new PCMCodec(format);
+            byteBuffer = null;
+        }
+        int length = frameSize * codec.getFrameBytes();
+        if (byteBuffer == null || byteBuffer.length < length) {
+            byteBuffer = new byte[length];
+        }
     }
 
     /** Compute the FFT of the audio signal. */
     public Complex[] computeFFT() {
-        // Use the FFT class to compute the FFT of the sampleBuffer
-        return FFT.fft(Arrays.stream(sampleBuffer)
-                .mapToObj(value -> new Complex(value, 0))
-                .toArray(Complex[]::new));
+        int n = sampleBuffer.length;
+        double[] re = new double[n];
+        double[] im = new double[n];
+        computeFFT(re, im);
+
+        Complex[] result = new Complex[n];
+        for (int k = 0; k < n; k++) {
+            result[k] = new Complex(re[k], im[k]);
+        }
+        return result;
+    }
+
+    /** Compute the FFT of the audio signal into the given arrays, without allocating.
+     * @param re receives the real part of the spectrum, length must not be lower than the signal length
+     * @param im receives the imaginary part of the spectrum, same length as re */
+    public void computeFFT(double[] re, double[] im) {
+        int n = sampleBuffer.length;
+        computeSpectrum(re, im);
+
+        // the upper half of the spectrum of a real signal mirrors the lower half
+        for (int k = n / 2 + 1; k < n; k++) {
+            re[k] = re[n - k];
+            im[k] = -im[n - k];
+        }
+    }
+
+    /** Compute the n/2+1 non-redundant bins of the FFT of the first channel, without allocating.
+     * @param re receives the real part of the bins, length must not be lower than n/2+1
+     * @param im receives the imaginary part of the bins, same length as re */
+    public void computeSpectrum(double[] re, double[] im) {
+        computeSpectrum(0, re, im);
+    }
+
+    /** Compute the n/2+1 non-redundant bins of the FFT of one channel, without allocating. */
+    public void computeSpectrum(int channel, double[] re, double[] im) {
+        int n = channelBuffers[channel].length;
+        if (fftPlan == null || fftPlan.size() != n) {
+            fftPlan = RealFFTPlan.create(n);
+        }
+        fftPlan.forward(channelBuffers[channel], re, im);
     }
 
     // Getters & Setters
@@ -106,8 +212,23 @@ public class AudioSignal {
         return sampleBuffer;
     }
 
+    /** Replaces the buffer of the first channel. */
     public void setSampleBuffer(double[] sampleBuffer) {
         this.sampleBuffer = sampleBuffer;
+        this.channelBuffers[0] = sampleBuffer;
+    }
+
+    public int getChannels() {
+        return channelBuffers.length;
+    }
+
+    public double[] getChannelBuffer(int channel) {
+        return channelBuffers[channel];
+    }
+
+    /** @return the planar buffers, one per channel */
+    public double[][] getChannelBuffers() {
+        return channelBuffers;
     }
 
     public double getdBlevel() {
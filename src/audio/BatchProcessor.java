@@ -0,0 +1,444 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Headless processing of many WAV files in parallel, without any JavaFX dependency.
+ *
+ * Each file is split into chunks of at most chunkFrames frames, and every chunk is a task run on a
+ * virtual thread or on a fixed pool of worker threads. Chunks read the input through their own
+ * {@link WavFileReader} and write their own region of the output ({@link WavFileWriter.Region}),
+ * so the chunks of one long file keep every core busy as well as many short files do. submit()
+ * blocks while too many chunks are in flight, which bounds the number of open files and mapped
+ * windows however many files are queued.
+ *
+ * Effects have state, so each chunk starts prerollFrames before its first frame and drops the
+ * output of that pre-roll: the result is identical to processing the file in one go for effects
+ * whose memory is shorter than the pre-roll (FIR filters, most IIR filters), and close to it
+ * otherwise. The output level of every file is measured on the way.
+ *
+ * With {@link Precision#FLOAT}, the chunks are processed in float buffers, halving the working set
+ * of each in-flight chunk; the effects must then support single precision.
+ *
+ * Example of use:
+ * BatchProcessor batch = new BatchProcessor(0, 1024, 1 << 22, 1 << 14);
+ * Job job = batch.submit(Path.of("in.wav"), Path.of("out.wav"), format -> new GainEffect(-3));
+ * batch.awaitCompletion();
+ */
+public class BatchProcessor {
+
+    /** The processing of one file. Progress may be read from any thread. */
+    public static final class Job {
+        public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+        private final Path input, output;
+        private final long frames;
+        private final AtomicLong framesDone = new AtomicLong();
+        private final AtomicInteger chunksLeft = new AtomicInteger();
+        private final LevelMeter meter = new LevelMeter();
+        private volatile State state = State.QUEUED;
+        private volatile Throwable error;
+        private final long submitTime = System.nanoTime();
+        private volatile long endTime;
+        private WavFileWriter writer; // null for an analysis only job
+
+        private Job(Path input, Path output, long frames) {
+            this.input = input;
+            this.output = output;
+            this.frames = frames;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        /** @return the output file, or null if the file is only analyzed */
+        public Path getOutput() {
+            return output;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        /** @return the processed fraction of the file, between 0 and 1 */
+        public double getProgress() {
+            return frames > 0 ? (double) framesDone.get() / frames : state == State.DONE ? 1 : 0;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /** @return the reason of a FAILED job */
+        public Throwable getError() {
+            return error;
+        }
+
+        /** @return the output level measures, complete once the job is DONE */
+        public synchronized LevelMeter getMeter() {
+            return meter;
+        }
+
+        /** @return the time from submission to completion, in seconds */
+        public double getSeconds() {
+            return ((endTime != 0 ? endTime : System.nanoTime()) - submitTime) * 1e-9;
+        }
+
+        private synchronized void merge(LevelMeter chunkMeter) {
+            meter.merge(chunkMeter);
+        }
+
+        // keeps the first error reported by the chunks, which run on several threads
+        private synchronized void fail(Throwable e) {
+            if (error == null) error = e;
+        }
+
+        // called by every chunk, the last one finalizes the output
+        private void chunkDone(Throwable chunkError) {
+            if (chunkError != null) fail(chunkError);
+            if (chunksLeft.decrementAndGet() > 0) return;
+            try {
+                if (writer != null) writer.close();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+            endTime = System.nanoTime();
+            state = error == null ? State.DONE : State.FAILED;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int frameSize;
+    private final long chunkFrames;
+    private final int prerollFrames;
+    private volatile Precision precision = Precision.DOUBLE;
+    private final List<Job> jobs = new ArrayList<>();
+
+    /** @param workers the number of worker threads, 0 for one virtual thread per chunk
+     * @param frameSize the number of frames given to the effects at once
+     * @param chunkFrames the maximum length of a chunk, rounded up to a multiple of frameSize
+     * @param prerollFrames the frames processed and dropped before each chunk, rounded up to a multiple of frameSize */
+    public BatchProcessor(int workers, int frameSize, long chunkFrames, int prerollFrames) {
+        if (workers < 0 || frameSize < 1 || chunkFrames < 1 || prerollFrames < 0) {
+            throw new IllegalArgumentException("Invalid batch settings");
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.executor = workers == 0 ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(workers);
+        this.inFlight = new Semaphore(2 * (workers == 0 ? cores : workers));
+        this.frameSize = frameSize;
+        this.chunkFrames = (chunkFrames + frameSize - 1) / frameSize * frameSize;
+        this.prerollFrames = (prerollFrames + frameSize - 1) / frameSize * frameSize;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /** Sets the type of the samples given to the effects of the files submitted next, DOUBLE by default. */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /** Schedules the processing of one file, blocking while too many chunks are in flight.
+     * @param output the output file, in the input format, or null to only measure the input
+     * @param factory builds the effect of one channel for the format of the file, null for none. In
+     * FLOAT precision, the job fails if the effect has no single precision path */
+    public Job submit(Path input, Path output, Function<AudioFormat, ? extends AudioEffect> factory)
+            throws IOException, InterruptedException {
+        AudioFormat format;
+        long frames;
+        try (WavFileReader reader = new WavFileReader(input)) {
+            format = reader.getFormat();
+            frames = reader.getFrames();
+        }
+
+        Precision precision = this.precision;
+        Job job = new Job(input, output, frames);
+        if (output != null) {
+            if (output.getParent() != null) Files.createDirectories(output.getParent());
+            job.writer = new WavFileWriter(output, format, frames);
+        }
+        synchronized (jobs) {
+            jobs.add(job);
+        }
+
+        int chunks = (int) Math.max(1, (frames + chunkFrames - 1) / chunkFrames);
+        job.chunksLeft.set(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            long first = chunk * chunkFrames;
+            long count = Math.min(chunkFrames, frames - first);
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                // the chunks never submitted are done too, so that the job fails and its output is closed
+                for (int left = chunk; left < chunks; left++) {
+                    job.chunkDone(e);
+                }
+                throw e;
+            }
+            try {
+                executor.execute(() -> {
+                    Throwable chunkError = null;
+                    try {
+                        job.state = Job.State.RUNNING;
+                        processChunk(job, format, first, count, factory, precision);
+                    } catch (Throwable e) {
+                        chunkError = e;
+                    } finally {
+                        inFlight.release();
+                        job.chunkDone(chunkError);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down meanwhile: same as an interruption, for this chunk and the next ones
+                inFlight.release();
+                for (int left = chunk; left < chunks; left++) {
+                    job.chunkDone(e);
+                }
+                throw e;
+            }
+        }
+        return job;
+    }
+
+    private void processChunk(Job job, AudioFormat format, long first, long count,
+                              Function<AudioFormat, ? extends AudioEffect> factory, Precision precision)
+            throws IOException {
+        int channels = format.getChannels();
+        MultichannelEffect effect = MultichannelEffect.of(channels,
+                () -> factory != null ? factory.apply(format) : new EffectChain());
+        ChunkBuffers buffers;
+        if (precision == Precision.FLOAT) {
+            if (!effect.supportsFloat()) {
+                throw new IllegalArgumentException("The effect has no single precision path");
+            }
+            buffers = new FloatBuffers(frameSize, channels);
+        } else {
+            buffers = new DoubleBuffers(frameSize, channels);
+        }
+        LevelMeter meter = new LevelMeter();
+        WavFileWriter.Region region = job.writer != null ? job.writer.region(first, count) : null;
+
+        try (WavFileReader reader = new WavFileReader(job.input)) {
+            long start = Math.max(0, first - prerollFrames);
+            reader.seek(start);
+            long preroll = first - start;
+            long end = first + count;
+
+            while (reader.getPosition() < end) {
+                long position = reader.getPosition();
+                int frames = (int) Math.min(buffers.read(reader), end - position);
+                buffers.process(effect, frameSize);
+                if (preroll > 0) {
+                    preroll -= frames; // pre-roll is a whole number of blocks
+                    continue;
+                }
+                buffers.measure(meter, frames);
+                if (region != null) buffers.write(region, frames);
+                job.framesDone.addAndGet(frames);
+            }
+        }
+        if (region != null) region.force();
+        job.merge(meter);
+    }
+
+    // the input and output blocks of a chunk in one precision, so that processChunk() is written once
+    private interface ChunkBuffers {
+        int read(WavFileReader reader) throws IOException;
+        void process(MultichannelEffect effect, int n);
+        void measure(LevelMeter meter, int frames);
+        void write(WavFileWriter.Region region, int frames) throws IOException;
+    }
+
+    private static final class DoubleBuffers implements ChunkBuffers {
+        private final AudioSignal in, out;
+
+        DoubleBuffers(int frameSize, int channels) {
+            in = new AudioSignal(frameSize, channels);
+            out = new AudioSignal(frameSize, channels);
+        }
+
+        @Override
+        public int read(WavFileReader reader) throws IOException {
+            return reader.read(in);
+        }
+
+        @Override
+        public void process(MultichannelEffect effect, int n) {
+            effect.process(in.getChannelBuffers(), out.getChannelBuffers(), n);
+        }
+
+        @Override
+        public void measure(LevelMeter meter, int frames) {
+            for (double[] channel : out.getChannelBuffers()) {
+                meter.process(channel, channel, frames);
+            }
+        }
+
+        @Override
+        public void write(WavFileWriter.Region region, int frames) throws IOException {
+            region.write(out, frames);
+        }
+    }
+
+    private static final class FloatBuffers implements ChunkBuffers {
+        private final FloatAudioSignal in, out;
+
+        FloatBuffers(int frameSize, int channels) {
+            in = new FloatAudioSignal(frameSize, channels);
+            out = new FloatAudioSignal(frameSize, channels);
+        }
+
+        @Override
+        public int read(WavFileReader reader) throws IOException {
+            return reader.read(in);
+        }
+
+        @Override
+        public void process(MultichannelEffect effect, int n) {
+            effect.process(in.getChannelBuffers(), out.getChannelBuffers(), n);
+        }
+
+        @Override
+        public void measure(LevelMeter meter, int frames) {
+            for (float[] channel : out.getChannelBuffers()) {
+                meter.process(channel, channel, frames);
+            }
+        }
+
+        @Override
+        public void write(WavFileWriter.Region region, int frames) throws IOException {
+            region.write(out, frames);
+        }
+    }
+
+    /** @return the jobs submitted so far */
+    public List<Job> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs);
+        }
+    }
+
+    /** Waits for every submitted job to finish, then stops the worker threads. */
+    public void awaitCompletion() throws InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            // keep waiting, progress is reported by the jobs
+        }
+    }
+
+    /** Command line entry point.
+     * @param args [--threads n] [--gain dB] [--highpass Hz] [--lowpass Hz] [--chunk frames] [--float] inputDir [outputDir]
+     * Without outputDir the files are only measured. */
+    public static void main(String[] args) throws Exception {
+        int threads = 0;
+        double gain = 0, highpass = 0, lowpass = 0;
+        long chunkFrames = 1 << 21;
+        Precision precision = Precision.DOUBLE;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--gain": gain = Double.parseDouble(args[++i]); break;
+                case "--highpass": highpass = Double.parseDouble(args[++i]); break;
+                case "--lowpass": lowpass = Double.parseDouble(args[++i]); break;
+                case "--chunk": chunkFrames = Long.parseLong(args[++i]); break;
+                case "--float": precision = Precision.FLOAT; break;
+                default: paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty() || paths.size() > 2) {
+            System.out.println("Usage: BatchProcessor [--threads n (0 = virtual threads)] [--gain dB] [--highpass Hz]"
+                    + " [--lowpass Hz] [--chunk frames] [--float] inputDir [outputDir]");
+            return;
+        }
+        Path inputDir = Path.of(paths.get(0));
+        Path outputDir = paths.size() > 1 ? Path.of(paths.get(1)) : null;
+
+        double g = gain, hp = highpass, lp = lowpass;
+        Function<AudioFormat, AudioEffect> factory = format -> {
+            float rate = format.getSampleRate();
+            BiquadCascade filters = new BiquadCascade(2, rate);
+            if (hp > 0) filters.setBand(0, Biquad.design(Biquad.Type.HIGH_PASS, hp, 0.707, 0, rate));
+            if (lp > 0) filters.setBand(1, Biquad.design(Biquad.Type.LOW_PASS, lp, 0.707, 0, rate));
+            filters.reset(); // start on the final coefficients
+            return new EffectChain(filters, new GainEffect(g));
+        };
+
+        List<Path> inputs;
+        try (Stream<Path> files = Files.walk(inputDir)) {
+            inputs = files.filter(p -> p.toString().toLowerCase().endsWith(".wav")).sorted().collect(Collectors.toList());
+        }
+
+        BatchProcessor batch = new BatchProcessor(threads, 1024, chunkFrames, 1 << 14);
+        batch.setPrecision(precision);
+        Thread reporter = new Thread(() -> report(batch, inputs.size()), "batch-progress");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        long start = System.nanoTime();
+        for (Path input : inputs) {
+            Path output = outputDir != null ? outputDir.resolve(inputDir.relativize(input)) : null;
+            try {
+                batch.submit(input, output, factory);
+            } catch (IOException e) {
+                System.out.println("Skipped " + input + ": " + e.getMessage());
+            }
+        }
+        batch.awaitCompletion();
+        reporter.interrupt();
+
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        double audioSeconds = 0;
+        for (Job job : batch.getJobs()) {
+            if (job.getState() == Job.State.FAILED) {
+                System.out.println("FAILED " + job.getInput() + ": " + job.getError());
+            } else {
+                LevelMeter meter = job.getMeter();
+                System.out.printf("%s: peak %.1f dBFS, RMS %.1f dBFS%n", job.getInput(), meter.getPeakDb(), meter.getRmsDb());
+            }
+            try (WavFileReader reader = new WavFileReader(job.getInput())) {
+                audioSeconds += job.getFrames() / reader.getFormat().getSampleRate();
+            }
+        }
+        System.out.printf("%d files, %.1f s of audio in %.2f s (%.0f x real time)%n",
+                inputs.size(), audioSeconds, seconds, audioSeconds / seconds);
+    }
+
+    // prints the overall progress and the running jobs twice a second
+    private static void report(BatchProcessor batch, int files) {
+        try {
+            while (true) {
+                Thread.sleep(500);
+                int done = 0;
+                StringBuilder running = new StringBuilder();
+                for (Job job : batch.getJobs()) {
+                    if (job.getState() == Job.State.DONE || job.getState() == Job.State.FAILED) {
+                        done++;
+                    } else if (job.getState() == Job.State.RUNNING) {
+                        running.append(String.format(" %s %.0f%%", job.getInput().getFileName(), 100 * job.getProgress()));
+                    }
+                }
+                System.out.println("[" + done + "/" + files + "]" + running);
+            }
+        } catch (InterruptedException e) {
+            // finished
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package audio;
+
+/** Immutable coefficients of a second order IIR section, normalized so that a0 = 1:
+ * H(z) = (b0 + b1 z^-1 + b2 z^-2) / (1 + a1 z^-1 + a2 z^-2).
+ *
+ * The design() factory implements the usual "Audio EQ Cookbook" formulas (R. Bristow-Johnson).
+ *
+ * Example of use:
+ * Biquad presence = Biquad.design(Biquad.Type.PEAKING, 3000, 1.0, 4.0, 44100);
+ */
+public final class Biquad {
+
+    /** Filter shapes. gainDb is only used by PEAKING, LOW_SHELF and HIGH_SHELF. */
+    public enum Type { LOW_PASS, HIGH_PASS, PEAKING, LOW_SHELF, HIGH_SHELF, NOTCH }
+
+    /** The identity filter. */
+    public static final Biquad BYPASS = new Biquad(1, 0, 0, 0, 0);
+
+    final double b0, b1, b2, a1, a2;
+
+    public Biquad(double b0, double b1, double b2, double a1, double a2) {
+        this.b0 = b0;
+        this.b1 = b1;
+        this.b2 = b2;
+        this.a1 = a1;
+        this.a2 = a2;
+    }
+
+    /** Designs a filter.
+     * @param frequency the cutoff, center or shelf midpoint frequency in Hz, below sampleRate / 2
+     * @param q the quality factor (0.707 gives a Butterworth low/high-pass)
+     * @param gainDb the boost (positive) or cut (negative) of peaking and shelving filters */
+    public static Biquad design(Type type, double frequency, double q, double gainDb, double sampleRate) {
+        if (frequency <= 0 || frequency >= sampleRate / 2 || q <= 0) {
+            throw new IllegalArgumentException("Frequency must be in ]0, sampleRate/2[ and q positive");
+        }
+        double w0 = 2 * Math.PI * frequency / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        double a = Math.pow(10, gainDb / 40);
+        double shelf = 2 * Math.sqrt(a) * alpha;
+
+        double b0, b1, b2, a0, a1, a2;
+        switch (type) {
+            case LOW_PASS:
+                b0 = (1 - cos) / 2; b1 = 1 - cos; b2 = b0;
+                a0 = 1 + alpha; a1 = -2 * cos; a2 = 1 - alpha;
+                break;
+            case HIGH_PASS:
+                b0 = (1 + cos) / 2; b1 = -(1 + cos); b2 = b0;
+                a0 = 1 + alpha; a1 = -2 * cos; a2 = 1 - alpha;
+                break;
+            case PEAKING:
+                b0 = 1 + alpha * a; b1 = -2 * cos; b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a; a1 = -2 * cos; a2 = 1 - alpha / a;
+                break;
+            case LOW_SHELF:
+                b0 = a * ((a + 1) - (a - 1) * cos + shelf);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - shelf);
+                a0 = (a + 1) + (a - 1) * cos + shelf;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - shelf;
+                break;
+            case HIGH_SHELF:
+                b0 = a * ((a + 1) + (a - 1) * cos + shelf);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - shelf);
+                a0 = (a + 1) - (a - 1) * cos + shelf;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - shelf;
+                break;
+            default: // NOTCH
+                b0 = 1; b1 = -2 * cos; b2 = 1;
+                a0 = 1 + alpha; a1 = -2 * cos; a2 = 1 - alpha;
+                break;
+        }
+        return new Biquad(b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0);
+    }
+
+    /** @return the magnitude of the frequency response at the given frequency */
+    public double magnitude(double frequency, double sampleRate) {
+        double w = 2 * Math.PI * frequency / sampleRate;
+        double c1 = Math.cos(w), s1 = Math.sin(w), c2 = Math.cos(2 * w), s2 = Math.sin(2 * w);
+        double nr = b0 + b1 * c1 + b2 * c2, ni = -(b1 * s1 + b2 * s2);
+        double dr = 1 + a1 * c1 + a2 * c2, di = -(a1 * s1 + a2 * s2);
+        return Math.sqrt((nr * nr + ni * ni) / (dr * dr + di * di));
+    }
+}
@@ -0,0 +1,257 @@
+package audio;
+
+import math.FloatRealFFTPlan;
+import math.RealFFTPlan;
+
+import java.util.Arrays;
+
+/** Streaming FIR filter computing the convolution of a continuous signal with a fixed impulse
+ * response, one block at a time, through the FFT.
+ *
+ * The filter spectrum is computed once in the constructor and every buffer is allocated there
+ * too, so processing a block costs one forward and one inverse real FFT of size
+ * N >= blockSize + filterLength - 1 and never allocates. Two classic modes are available:
+ * - overlap-add: each zero-padded input block is filtered on its own and the tail of its
+ *   convolution is added to the following output blocks;
+ * - overlap-save: the last N input samples are filtered and the N - blockSize first output
+ *   samples, corrupted by the circular wrap-around, are dropped.
+ *
+ * A {@link Precision#FLOAT} convolver keeps its spectra and buffers in float, halving its memory,
+ * and then only processes float blocks.
+ *
+ * Example of use:
+ * BlockConvolver convolver = new BlockConvolver(impulseResponse, 1024, BlockConvolver.Mode.OVERLAP_SAVE);
+ * convolver.process(inputSignal, outputSignal);
+ */
+public class BlockConvolver implements AudioEffect {
+
+    /** How consecutive blocks are stitched together. */
+    public enum Mode { OVERLAP_ADD, OVERLAP_SAVE }
+
+    private final Mode mode;
+    private final int blockSize;
+    private final int fftSize;
+    private final Precision precision;
+    // DOUBLE precision plan and buffers, null for FLOAT
+    private final RealFFTPlan plan;
+    private final double[] filterRe, filterIm;     // spectrum of the zero-padded filter
+    private final double[] spectrumRe, spectrumIm; // spectrum of the current block
+    private final double[] time;                   // FFT input and output
+    private final double[] history;                // overlap-add tail, or overlap-save input history
+    // FLOAT precision plan and buffers, null for DOUBLE
+    private final FloatRealFFTPlan floatPlan;
+    private final float[] floatFilterRe, floatFilterIm, floatSpectrumRe, floatSpectrumIm, floatTime, floatHistory;
+
+    /** Creates a convolver for the given impulse response.
+     * @param filter the impulse response, copied
+     * @param blockSize the number of samples given to each call of process() */
+    public BlockConvolver(double[] filter, int blockSize, Mode mode) {
+        this(filter, blockSize, mode, Precision.DOUBLE);
+    }
+
+    /** Creates a convolver for the given impulse response.
+     * @param filter the impulse response, copied
+     * @param blockSize the number of samples given to each call of process()
+     * @param precision the type of the samples, FLOAT convolvers only process float blocks */
+    public BlockConvolver(double[] filter, int blockSize, Mode mode, Precision precision) {
+        if (filter.length == 0 || blockSize < 1) {
+            throw new IllegalArgumentException("Empty filter or block");
+        }
+        this.mode = mode;
+        this.blockSize = blockSize;
+        this.precision = precision;
+
+        // smallest power of 2 that holds a whole linear convolution of one block
+        int n = Integer.highestOneBit(blockSize + filter.length - 1);
+        if (n < blockSize + filter.length - 1) n *= 2;
+        fftSize = Math.max(n, 2);
+        int bins = fftSize / 2 + 1;
+
+        if (precision == Precision.DOUBLE) {
+            plan = RealFFTPlan.create(fftSize);
+            filterRe = new double[bins];
+            filterIm = new double[bins];
+            spectrumRe = new double[bins];
+            spectrumIm = new double[bins];
+            time = new double[fftSize];
+            history = new double[fftSize];
+            System.arraycopy(filter, 0, time, 0, filter.length);
+            plan.forward(time, filterRe, filterIm);
+
+            floatPlan = null;
+            floatFilterRe = floatFilterIm = floatSpectrumRe = floatSpectrumIm = floatTime = floatHistory = null;
+        } else {
+            floatPlan = FloatRealFFTPlan.create(fftSize);
+            floatFilterRe = new float[bins];
+            floatFilterIm = new float[bins];
+            floatSpectrumRe = new float[bins];
+            floatSpectrumIm = new float[bins];
+            floatTime = new float[fftSize];
+            floatHistory = new float[fftSize];
+            for (int i = 0; i < filter.length; i++) floatTime[i] = (float) filter[i];
+            floatPlan.forward(floatTime, floatFilterRe, floatFilterIm);
+
+            plan = null;
+            filterRe = filterIm = spectrumRe = spectrumIm = time = history = null;
+        }
+    }
+
+    /** @return the number of samples processed by each call */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /** @return the size of the FFTs used for each block */
+    public int getFFTSize() {
+        return fftSize;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /** Forgets the previous blocks, as if the input had been silent until now. */
+    @Override
+    public void reset() {
+        if (history != null) Arrays.fill(history, 0.0);
+        if (floatHistory != null) Arrays.fill(floatHistory, 0.0f);
+    }
+
+    /** Filters one block of the input signal into the output signal. Both signals must contain
+     * blockSize samples; they may be the same signal. */
+    public void process(AudioSignal input, AudioSignal output) {
+        process(input.getSampleBuffer(), output.getSampleBuffer());
+    }
+
+    /** Filters in[0..n-1] into out[0..n-1], as an {@link AudioEffect}.
+     * @param n must be equal to the block size given to the constructor */
+    @Override
+    public void process(double[] in, double[] out, int n) {
+        if (n != blockSize) {
+            throw new IllegalArgumentException("Block size is " + blockSize + ", not " + n);
+        }
+        process(in, out);
+    }
+
+    /** Filters in[0..n-1] into out[0..n-1] with a FLOAT convolver.
+     * @param n must be equal to the block size given to the constructor */
+    @Override
+    public void process(float[] in, float[] out, int n) {
+        if (n != blockSize) {
+            throw new IllegalArgumentException("Block size is " + blockSize + ", not " + n);
+        }
+        if (precision != Precision.FLOAT) {
+            throw new UnsupportedOperationException("Double precision convolver");
+        }
+        if (mode == Mode.OVERLAP_ADD) {
+            System.arraycopy(in, 0, floatTime, 0, blockSize);
+            Arrays.fill(floatTime, blockSize, fftSize, 0.0f);
+        } else {
+            System.arraycopy(floatHistory, blockSize, floatHistory, 0, fftSize - blockSize);
+            System.arraycopy(in, 0, floatHistory, fftSize - blockSize, blockSize);
+            System.arraycopy(floatHistory, 0, floatTime, 0, fftSize);
+        }
+
+        floatPlan.forward(floatTime, floatSpectrumRe, floatSpectrumIm);
+        for (int k = 0; k < floatSpectrumRe.length; k++) {
+            float ar = floatSpectrumRe[k], ai = floatSpectrumIm[k];
+            floatSpectrumRe[k] = ar * floatFilterRe[k] - ai * floatFilterIm[k];
+            floatSpectrumIm[k] = ar * floatFilterIm[k] + ai * floatFilterRe[k];
+        }
+        floatPlan.inverse(floatSpectrumRe, floatSpectrumIm, floatTime);
+
+        if (mode == Mode.OVERLAP_ADD) {
+            for (int i = 0; i < blockSize; i++) {
+                out[i] = floatTime[i] + floatHistory[i];
+            }
+            int tail = fftSize - blockSize;
+            for (int i = 0; i < tail; i++) {
+                floatHistory[i] = (i + blockSize < tail ? floatHistory[i + blockSize] : 0.0f) + floatTime[i + blockSize];
+            }
+        } else {
+            System.arraycopy(floatTime, fftSize - blockSize, out, 0, blockSize);
+        }
+    }
+
+    @Override
+    public boolean supportsFloat() {
+        return precision == Precision.FLOAT;
+    }
+
+    /** Filters in[0..blockSize-1] into out[0..blockSize-1] with a DOUBLE convolver. in and out may be the same array. */
+    public void process(double[] in, double[] out) {
+        if (precision != Precision.DOUBLE) {
+            throw new UnsupportedOperationException("Single precision convolver");
+        }
+        if (mode == Mode.OVERLAP_ADD) {
+            System.arraycopy(in, 0, time, 0, blockSize);
+            Arrays.fill(time, blockSize, fftSize, 0.0);
+        } else {
+            // slide the input history and append the new block
+            System.arraycopy(history, blockSize, history, 0, fftSize - blockSize);
+            System.arraycopy(in, 0, history, fftSize - blockSize, blockSize);
+            System.arraycopy(history, 0, time, 0, fftSize);
+        }
+
+        convolve();
+
+        if (mode == Mode.OVERLAP_ADD) {
+            for (int i = 0; i < blockSize; i++) {
+                out[i] = time[i] + history[i];
+            }
+            // the tail of this block overlaps the next ones
+            int tail = fftSize - blockSize;
+            for (int i = 0; i < tail; i++) {
+                history[i] = (i + blockSize < tail ? history[i + blockSize] : 0.0) + time[i + blockSize];
+            }
+        } else {
+            System.arraycopy(time, fftSize - blockSize, out, 0, blockSize);
+        }
+    }
+
+    // time = circular convolution of time with the filter
+    private void convolve() {
+        plan.forward(time, spectrumRe, spectrumIm);
+        for (int k = 0; k < spectrumRe.length; k++) {
+            double ar = spectrumRe[k], ai = spectrumIm[k];
+            spectrumRe[k] = ar * filterRe[k] - ai * filterIm[k];
+            spectrumIm[k] = ar * filterIm[k] + ai * filterRe[k];
+        }
+        plan.inverse(spectrumRe, spectrumIm, time);
+    }
+
+    /** Test client: compares both modes, in both precisions, with a direct convolution. */
+    public static void main(String[] args) {
+        int blockSize = 256, blocks = 12;
+        double[] filter = new double[700];
+        double[] signal = new double[blockSize * blocks];
+        for (int i = 0; i < filter.length; i++) filter[i] = Math.exp(-i / 100.0) * Math.cos(i * 0.3);
+        for (int i = 0; i < signal.length; i++) signal[i] = Math.sin(i * 0.05) + 0.1 * Math.random();
+
+        for (Mode mode : Mode.values()) {
+            for (Precision precision : Precision.values()) {
+                BlockConvolver convolver = new BlockConvolver(filter, blockSize, mode, precision);
+                double[] block = new double[blockSize];
+                float[] floatBlock = new float[blockSize];
+                double maxError = 0;
+                for (int b = 0; b < blocks; b++) {
+                    System.arraycopy(signal, b * blockSize, block, 0, blockSize);
+                    if (precision == Precision.DOUBLE) {
+                        convolver.process(block, block);
+                    } else {
+                        for (int i = 0; i < blockSize; i++) floatBlock[i] = (float) block[i];
+                        convolver.process(floatBlock, floatBlock, blockSize);
+                        for (int i = 0; i < blockSize; i++) block[i] = floatBlock[i];
+                    }
+                    for (int i = 0; i < blockSize; i++) {
+                        int t = b * blockSize + i;
+                        double expected = 0;
+                        for (int j = 0; j < filter.length && j <= t; j++) expected += filter[j] * signal[t - j];
+                        maxError = Math.max(maxError, Math.abs(block[i] - expected));
+                    }
+                }
+                System.out.println(mode + " " + precision + ": FFT size " + convolver.getFFTSize() + ", max error " + maxError);
+            }
+        }
+    }
+}
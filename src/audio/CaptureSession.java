@@ -0,0 +1,380 @@
+package audio;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import javax.management.JMException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/** Owns one input line, one output line and the {@link AudioProcessor} thread moving audio
+ * between them, for as long as the application runs.
+ *
+ * Lifecycle: open() obtains and opens both lines once, start() starts them and the processing
+ * thread, stop() pauses everything but keeps the lines open so that start() can be called again,
+ * and close() releases the lines. Methods may be called from any thread (typically the UI one).
+ *
+ * While open, the {@link ProcessingStats} of the session are registered as JMX MBeans named after
+ * the session (audio:type=ProcessingStats,name=session1...), and keep counting across stop() and start().
+ *
+ * Example of use:
+ * CaptureSession session = new CaptureSession("Default Audio Device", "Default Audio Device", 44100, 1024);
+ * session.open();
+ * session.start();
+ * ...
+ * session.close();
+ *
+ * A session can also run on lines created by the caller, e.g. the virtual lines of
+ * {@link VirtualTargetLine} and {@link VirtualSourceLine} to process audio without a sound card.
+ *
+ * The block size and the output pre-roll can be changed with setLatency(), which reopens the lines
+ * with buffers of matching size, or chosen by a {@link LatencyTuner}: the session then applies the
+ * setting the tuner derives from its stats every second. Each change restarts the processing, with
+ * effects built anew for the new block size, which makes a short gap in the sound.
+ */
+public class CaptureSession implements AutoCloseable {
+
+    public enum State { CLOSED, OPEN, RUNNING }
+
+    // from this many channels on, the channels of each block are processed in parallel if there
+    // are several processors
+    private static final int PARALLEL_CHANNELS = 8;
+    private static final AtomicInteger SESSIONS = new AtomicInteger();
+    private static final long TUNING_PERIOD_MS = 1000;
+
+    // processes the channels of the sessions in parallel, not shared with other work
+    private static final class ChannelPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private final String inputMixerName;
+    private final String outputMixerName;
+    private final int sampleRate;
+    private int frameSize;
+    private int preRoll;
+    private int bufferFrames = AudioSystem.NOT_SPECIFIED; // driver default until setLatency()
+    private final String name;
+    private final ProcessingStats stats;
+    private final TargetDataLine givenInputLine;  // used instead of a mixer line, if not null
+    private final SourceDataLine givenOutputLine;
+
+    private TargetDataLine inputLine;
+    private SourceDataLine outputLine;
+    private AudioProcessor audioProcessor;
+    private Thread audioThread;
+    private SampleRingBuffer monitorBuffer;
+    private double monitorRate; // 0 for the rate of the lines
+    private Supplier<? extends AudioEffect> effect;
+    private Boolean strictRealTime; // the processor default if null
+    private LatencyTuner latencyTuner;
+    private ScheduledExecutorService tuning; // runs the tuner while processing, if any
+    private State state = State.CLOSED;
+
+    /** @param inputMixerName the input mixer, see {@link AudioIO#getMixerInfo(String)}, or null for the default one
+     * @param outputMixerName the output mixer, or null for the default one
+     * @param frameSize the number of samples processed at once */
+    public CaptureSession(String inputMixerName, String outputMixerName, int sampleRate, int frameSize) {
+        this.inputMixerName = inputMixerName;
+        this.outputMixerName = outputMixerName;
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.name = "session" + SESSIONS.incrementAndGet();
+        this.stats = new ProcessingStats((double) frameSize / sampleRate);
+        this.givenInputLine = null;
+        this.givenOutputLine = null;
+    }
+
+    /** A session on the given lines, opened by open() if they are not open yet and closed by close().
+     * @param frameSize the number of samples processed at once */
+    public CaptureSession(TargetDataLine inputLine, SourceDataLine outputLine, int frameSize) {
+        this.inputMixerName = null;
+        this.outputMixerName = null;
+        this.sampleRate = (int) inputLine.getFormat().getSampleRate();
+        this.frameSize = frameSize;
+        this.name = "session" + SESSIONS.incrementAndGet();
+        this.stats = new ProcessingStats(frameSize / (double) inputLine.getFormat().getSampleRate());
+        this.givenInputLine = inputLine;
+        this.givenOutputLine = outputLine;
+    }
+
+    /** Obtains and opens the input and output lines. Does nothing if they are already open. */
+    public synchronized void open() throws LineUnavailableException {
+        if (state != State.CLOSED) return;
+
+        if (givenInputLine != null) {
+            inputLine = givenInputLine;
+            outputLine = givenOutputLine;
+            try {
+                if (!inputLine.isOpen()) {
+                    if (bufferFrames > 0) {
+                        inputLine.open(inputLine.getFormat(), bufferFrames * inputLine.getFormat().getFrameSize());
+                    } else {
+                        inputLine.open();
+                    }
+                }
+                if (!outputLine.isOpen()) {
+                    if (bufferFrames > 0) {
+                        outputLine.open(outputLine.getFormat(), bufferFrames * outputLine.getFormat().getFrameSize());
+                    } else {
+                        outputLine.open();
+                    }
+                }
+            } catch (LineUnavailableException | RuntimeException e) {
+                closeLines();
+                throw e;
+            }
+        } else {
+            inputLine = AudioIO.obtainAudioInput(inputMixerName, sampleRate, bufferFrames);
+            outputLine = AudioIO.obtainAudioOutput(outputMixerName, sampleRate, bufferFrames);
+        }
+        if (inputLine == null || outputLine == null) {
+            closeLines();
+            throw new LineUnavailableException("Cannot open input '" + inputMixerName
+                    + "' or output '" + outputMixerName + "'");
+        }
+        try {
+            stats.register(name);
+        } catch (JMException e) {
+            // monitoring is optional, the session works without it
+            e.printStackTrace();
+        }
+        state = State.OPEN;
+    }
+
+    /** Starts the lines and the audio processing thread, opening the lines first if needed. */
+    public synchronized void start() throws LineUnavailableException {
+        if (latencyTuner != null && state != State.RUNNING) {
+            LatencyTuner.Setting setting = latencyTuner.getSetting();
+            setLatency(setting.getFrameSize(), setting.getPreRoll());
+        }
+        open();
+        if (state == State.RUNNING) return;
+
+        startProcessing();
+        if (latencyTuner != null) startTuning();
+    }
+
+    private void startProcessing() {
+        inputLine.start();
+        outputLine.start();
+
+        audioProcessor = new AudioProcessor(inputLine, outputLine, frameSize);
+        audioProcessor.setStats(stats);
+        audioProcessor.setPreRoll(preRoll);
+        audioProcessor.setMonitorBuffer(monitorBuffer);
+        audioProcessor.setMonitorRate(monitorRate);
+        audioProcessor.setEffect(effect);
+        if (strictRealTime != null) audioProcessor.setStrictRealTime(strictRealTime);
+        if (audioProcessor.getChannels() >= PARALLEL_CHANNELS && Runtime.getRuntime().availableProcessors() > 1) {
+            audioProcessor.setChannelPool(ChannelPool.INSTANCE);
+        }
+        audioThread = new Thread(audioProcessor, "audio-processor");
+        audioThread.setDaemon(true);
+        audioThread.start();
+        state = State.RUNNING;
+    }
+
+    /** Stops the audio processing thread and the lines, which stay open. Returns once the thread
+     * has finished its current block. */
+    public synchronized void stop() {
+        if (state != State.RUNNING) return;
+
+        stopTuning();
+        stopProcessing();
+    }
+
+    private void stopProcessing() {
+        audioProcessor.terminateAudioThread();
+        // stopping and flushing the lines releases a thread blocked in read() or write()
+        inputLine.stop();
+        inputLine.flush();
+        outputLine.stop();
+        outputLine.flush();
+        // the thread may still be processing a block: the lines must not be restarted or reopened
+        // under it, so wait for it even when interrupted
+        boolean interrupted = false;
+        while (audioThread.isAlive()) {
+            try {
+                audioThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        audioProcessor = null;
+        audioThread = null;
+        state = State.OPEN;
+    }
+
+    /** Stops processing and closes both lines. */
+    @Override
+    public synchronized void close() {
+        stop();
+        stopTuning(); // still scheduled if setLatency() failed to restart the session
+        closeLines();
+        stats.unregister();
+        state = State.CLOSED;
+    }
+
+    /** Changes the block size and the number of silent blocks written ahead to the output (see
+     * {@link AudioProcessor#setPreRoll(int)}). Open lines are reopened with buffers of preRoll + 2
+     * blocks, and a running session is restarted with effects built for the new block size.
+     * @throws LineUnavailableException if the lines cannot be reopened, the session is then closed */
+    public synchronized void setLatency(int frameSize, int preRoll) throws LineUnavailableException {
+        if (frameSize < 1 || preRoll < 0) throw new IllegalArgumentException("Invalid block size or pre-roll");
+        int bufferFrames = (preRoll + 2) * frameSize;
+        if (frameSize == this.frameSize && preRoll == this.preRoll && bufferFrames == this.bufferFrames) return;
+
+        State previous = state;
+        if (previous == State.RUNNING) stopProcessing();
+        if (previous != State.CLOSED) {
+            closeLines();
+            state = State.CLOSED;
+        }
+        this.frameSize = frameSize;
+        this.preRoll = preRoll;
+        this.bufferFrames = bufferFrames;
+        stats.setBlockDuration(frameSize / (double) sampleRate);
+
+        try {
+            if (previous != State.CLOSED) open();
+            if (previous == State.RUNNING) startProcessing();
+        } catch (LineUnavailableException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Sets the tuner choosing the block size and the pre-roll while the session runs, null to
+     * keep the current ones. The tuner setting is applied when processing starts. */
+    public synchronized void setLatencyTuner(LatencyTuner latencyTuner) {
+        this.latencyTuner = latencyTuner;
+        if (state == State.RUNNING) {
+            stopTuning();
+            if (latencyTuner != null) startTuning();
+        }
+    }
+
+    public synchronized LatencyTuner getLatencyTuner() {
+        return latencyTuner;
+    }
+
+    private void startTuning() {
+        tuning = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "latency-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tuning.scheduleWithFixedDelay(this::tune, TUNING_PERIOD_MS, TUNING_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopTuning() {
+        if (tuning != null) {
+            tuning.shutdown();
+            tuning = null;
+        }
+    }
+
+    private synchronized void tune() {
+        if (state != State.RUNNING || latencyTuner == null) return;
+        LatencyTuner.Setting setting = latencyTuner.evaluate(stats);
+        try {
+            setLatency(setting.getFrameSize(), setting.getPreRoll());
+        } catch (LineUnavailableException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeLines() {
+        if (inputLine != null) inputLine.close();
+        if (outputLine != null) outputLine.close();
+        inputLine = null;
+        outputLine = null;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** @return the running processor, or null if the session is not running */
+    public synchronized AudioProcessor getAudioProcessor() {
+        return audioProcessor;
+    }
+
+    /** Sets the ring buffer receiving the processed samples, also applied to a running processor. */
+    public synchronized void setMonitorBuffer(SampleRingBuffer monitorBuffer) {
+        this.monitorBuffer = monitorBuffer;
+        if (audioProcessor != null) {
+            audioProcessor.setMonitorBuffer(monitorBuffer);
+        }
+    }
+
+    /** Sets the sample rate of the monitored samples, also applied to a running processor.
+     * @param monitorRate the rate in Hz, or 0 for the rate of the lines */
+    public synchronized void setMonitorRate(double monitorRate) {
+        this.monitorRate = monitorRate;
+        if (audioProcessor != null) {
+            audioProcessor.setMonitorRate(monitorRate);
+        }
+    }
+
+    /** Sets the effect applied to every block, also swapped into a running processor.
+     * @param effect builds one effect per channel, processing blocks of getFrameSize() samples, null for
+     * none. It is called again whenever the block size changes, and should read getFrameSize() then */
+    public synchronized void setEffect(Supplier<? extends AudioEffect> effect) {
+        this.effect = effect;
+        if (audioProcessor != null) {
+            audioProcessor.setEffect(effect);
+        }
+    }
+
+    /** Enables or disables the counting of the processing blocks that allocate memory (see
+     * {@link AudioProcessor#setStrictRealTime(boolean)}), also applied to a running processor. */
+    public synchronized void setStrictRealTime(boolean strictRealTime) {
+        if (strictRealTime && !AllocationAudit.isSupported()) {
+            throw new UnsupportedOperationException("This JVM does not measure thread allocations");
+        }
+        if (audioProcessor != null) {
+            audioProcessor.setStrictRealTime(strictRealTime);
+        }
+        this.strictRealTime = strictRealTime;
+    }
+
+    /** @return the name of the session, used for its MBeans */
+    public String getName() {
+        return name;
+    }
+
+    /** @return the timings and glitch counters of the processing thread */
+    public ProcessingStats getStats() {
+        return stats;
+    }
+
+    public String getInputMixerName() {
+        return inputMixerName;
+    }
+
+    public String getOutputMixerName() {
+        return outputMixerName;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** @return the number of samples processed at once, which a {@link LatencyTuner} may change */
+    public synchronized int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of silent blocks written ahead to the output */
+    public synchronized int getPreRoll() {
+        return preRoll;
+    }
+}
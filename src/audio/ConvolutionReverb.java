@@ -0,0 +1,112 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/** Reverb effect convolving the signal with a recorded impulse response (typically 1 to 5
+ * seconds long), mixed with the dry signal. Built on {@link PartitionedConvolver}, so the
+ * latency is one block and nothing is allocated while processing.
+ *
+ * Example of use:
+ * ConvolutionReverb reverb = ConvolutionReverb.fromWavFile(new File("hall.wav"), 1024);
+ * reverb.setMix(0.3);
+ * reverb.process(in, out, 1024);
+ */
+public class ConvolutionReverb implements AudioEffect {
+    private final PartitionedConvolver convolver;
+    private final double[] wet;
+    private volatile double mix = 0.5; // 0 = dry only, 1 = reverb only
+
+    /** Creates a reverb from an impulse response.
+     * @param impulseResponse the impulse response, normalized to unit energy
+     * @param blockSize the number of samples given to each call of process() */
+    public ConvolutionReverb(double[] impulseResponse, int blockSize) {
+        this.convolver = new PartitionedConvolver(normalize(impulseResponse), blockSize);
+        this.wet = new double[blockSize];
+    }
+
+    /** Creates a reverb whose impulse response is read from a WAV file. Multichannel files are
+     * mixed down to mono. */
+    public static ConvolutionReverb fromWavFile(File file, int blockSize)
+            throws IOException, UnsupportedAudioFileException {
+        return new ConvolutionReverb(readImpulseResponse(file), blockSize);
+    }
+
+    /** Reads an impulse response from an audio file, mixing all channels down to mono.
+     * @return the samples, in [-1, 1] */
+    public static double[] readImpulseResponse(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat sourceFormat = source.getFormat();
+            int channels = sourceFormat.getChannels();
+
+            // let the audio system convert any PCM flavour to 16 bit little endian
+            AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                    sourceFormat.getSampleRate(), 16, channels, 2 * channels, sourceFormat.getSampleRate(), false);
+            try (AudioInputStream stream = AudioSystem.getAudioInputStream(format, source)) {
+                byte[] bytes = stream.readAllBytes();
+                int frames = bytes.length / (2 * channels);
+                double[] samples = new double[frames];
+                for (int i = 0; i < frames; i++) {
+                    double sum = 0;
+                    for (int c = 0; c < channels; c++) {
+                        int b = 2 * (i * channels + c);
+                        sum += (short) ((bytes[b] & 0xFF) | (bytes[b + 1] << 8)) / 32768.0; // little endian
+                    }
+                    samples[i] = sum / channels;
+                }
+                return samples;
+            }
+        }
+    }
+
+    // scales the impulse response to unit energy so that the reverb level does not depend on its length
+    private static double[] normalize(double[] impulseResponse) {
+        double energy = 0;
+        for (double v : impulseResponse) energy += v * v;
+        double scale = energy > 0 ? 1 / Math.sqrt(energy) : 1;
+
+        double[] normalized = new double[impulseResponse.length];
+        for (int i = 0; i < normalized.length; i++) normalized[i] = impulseResponse[i] * scale;
+        return normalized;
+    }
+
+    /** @return the wet/dry mix, between 0 (dry only) and 1 (reverb only) */
+    public double getMix() {
+        return mix;
+    }
+
+    /** Sets the wet/dry mix. May be called from any thread. */
+    public void setMix(double mix) {
+        this.mix = Math.max(0, Math.min(1, mix));
+    }
+
+    /** @return the number of samples processed by each call */
+    public int getBlockSize() {
+        return convolver.getBlockSize();
+    }
+
+    /** Forgets the reverb tail. */
+    @Override
+    public void reset() {
+        convolver.reset();
+    }
+
+    /** Applies the reverb to in[0..n-1] into out[0..n-1]. in and out may be the same array.
+     * @param n must be equal to the block size given to the constructor */
+    @Override
+    public void process(double[] in, double[] out, int n) {
+        if (n != wet.length) {
+            throw new IllegalArgumentException("Block size is " + wet.length + ", not " + n);
+        }
+        convolver.process(in, wet);
+
+        double m = mix;
+        for (int i = 0; i < n; i++) {
+            out[i] = (1 - m) * in[i] + m * wet[i];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package audio;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** An immutable sequence of effects applied one after the other, in place in the output buffer.
+ * An empty chain copies its input unchanged.
+ *
+ * Chains are swapped as a whole rather than modified: hand a factory of new chains to
+ * {@link AudioProcessor#setEffect(java.util.function.Supplier)}.
+ *
+ * Example of use:
+ * EffectChain chain = new EffectChain(new GainEffect(-6), new ConvolutionReverb(ir, 1024));
+ * chain.process(in, out, 1024);
+ */
+public final class EffectChain implements AudioEffect {
+    private final AudioEffect[] effects;
+
+    public EffectChain(AudioEffect... effects) {
+        for (AudioEffect effect : effects) {
+            if (effect == null) throw new IllegalArgumentException("null effect");
+        }
+        this.effects = effects.clone();
+    }
+
+    /** @return the effects, in processing order */
+    public List<AudioEffect> getEffects() {
+        return Collections.unmodifiableList(Arrays.asList(effects));
+    }
+
+    @Override
+    public void process(double[] in, double[] out, int n) {
+        if (effects.length == 0) {
+            if (in != out) System.arraycopy(in, 0, out, 0, n);
+            return;
+        }
+        effects[0].process(in, out, n);
+        for (int i = 1; i < effects.length; i++) {
+            effects[i].process(out, out, n);
+        }
+    }
+
+    @Override
+    public void process(float[] in, float[] out, int n) {
+        if (effects.length == 0) {
+            if (in != out) System.arraycopy(in, 0, out, 0, n);
+            return;
+        }
+        effects[0].process(in, out, n);
+        for (int i = 1; i < effects.length; i++) {
+            effects[i].process(out, out, n);
+        }
+    }
+
+    /** @return true if every effect of the chain supports single precision */
+    @Override
+    public boolean supportsFloat() {
+        for (AudioEffect effect : effects) {
+            if (!effect.supportsFloat()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        for (AudioEffect effect : effects) {
+            effect.reset();
+        }
+    }
+}
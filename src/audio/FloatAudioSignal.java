@@ -0,0 +1,37 @@
+package audio;
+
+/** Single precision counterpart of {@link AudioSignal} for {@link Precision#FLOAT} pipelines:
+ * planar channel buffers of frameSize float samples, read and written by {@link WavFileReader}
+ * and {@link WavFileWriter} and processed by {@link MultichannelEffect}.
+ *
+ * Example of use:
+ * FloatAudioSignal signal = new FloatAudioSignal(1024, reader.getFormat().getChannels());
+ * while ((count = reader.read(signal)) > 0) effect.process(signal.getChannelBuffers(), signal.getChannelBuffers(), 1024);
+ */
+public class FloatAudioSignal {
+    private final float[][] channelBuffers;
+    private final int frameSize;
+
+    /** Construct a signal with the given number of channels of "frameSize" samples each. */
+    public FloatAudioSignal(int frameSize, int channels) {
+        if (channels < 1) throw new IllegalArgumentException("At least one channel is needed");
+        this.frameSize = frameSize;
+        this.channelBuffers = new float[channels][frameSize];
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getChannels() {
+        return channelBuffers.length;
+    }
+
+    public float[] getChannelBuffer(int channel) {
+        return channelBuffers[channel];
+    }
+
+    public float[][] getChannelBuffers() {
+        return channelBuffers;
+    }
+}
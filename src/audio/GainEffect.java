@@ -0,0 +1,62 @@
+package audio;
+
+/** Multiplies the signal by a gain. Gain changes are ramped linearly over one block so that
+ * moving the control does not click. */
+public class GainEffect implements AudioEffect {
+    private volatile double targetGain; // set from any thread
+    private double gain;                // gain reached at the end of the last block
+
+    /** @param gainDb the initial gain, in dB */
+    public GainEffect(double gainDb) {
+        targetGain = Math.pow(10, gainDb / 20);
+        gain = targetGain;
+    }
+
+    public double getGainDb() {
+        return 20 * Math.log10(targetGain);
+    }
+
+    /** Sets the gain, in dB. May be called from any thread. */
+    public void setGainDb(double gainDb) {
+        targetGain = Math.pow(10, gainDb / 20);
+    }
+
+    @Override
+    public void process(double[] in, double[] out, int n) {
+        double target = targetGain;
+        if (target == gain) {
+            for (int i = 0; i < n; i++) out[i] = in[i] * target;
+            return;
+        }
+        double step = (target - gain) / n;
+        for (int i = 0; i < n; i++) {
+            out[i] = in[i] * (gain + step * (i + 1));
+        }
+        gain = target;
+    }
+
+    @Override
+    public void process(float[] in, float[] out, int n) {
+        double target = targetGain;
+        if (target == gain) {
+            float g = (float) target;
+            for (int i = 0; i < n; i++) out[i] = in[i] * g;
+            return;
+        }
+        double step = (target - gain) / n;
+        for (int i = 0; i < n; i++) {
+            out[i] = (float) (in[i] * (gain + step * (i + 1)));
+        }
+        gain = target;
+    }
+
+    @Override
+    public boolean supportsFloat() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        gain = targetGain;
+    }
+}
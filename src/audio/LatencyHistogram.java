@@ -0,0 +1,188 @@
+package audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Histogram of durations in nanoseconds with log-linear buckets: each power of 2 is split into 32
+ * equal buckets, so that any recorded value is known within about 3%, from 1 ns up to 18 minutes
+ * (longer durations count as 18 minutes) in 1152 counters.
+ *
+ * Recording is lock-free and never allocates, so it may be done on the audio thread, while other
+ * threads (e.g. JMX) read percentiles. A reading taken during recording or reset() may be off by
+ * the values being recorded, but never blocks the recording thread.
+ *
+ * Example of use:
+ * LatencyHistogram histogram = new LatencyHistogram();
+ * long start = System.nanoTime();
+ * ...
+ * histogram.record(System.nanoTime() - start);
+ * double p99 = histogram.getValueAtPercentile(99);
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 34;
+    private static final long MAX_VALUE = ((long) (2 * SUB_COUNT) << MAX_SHIFT) - 1; // 2^40-1 ns
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records one duration. Negative durations count as 0. */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    // values below 2*SUB_COUNT have a bucket each, above that the bucket width doubles every SUB_COUNT buckets
+    static int indexOf(long value) {
+        if (value < 2 * SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    // highest value counted in the given bucket
+    static long highestValueOf(int index) {
+        if (index < 2 * SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /** @return the number of recorded durations */
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return the mean of the recorded durations in nanoseconds, 0 if none */
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /** @return the total of the recorded durations in nanoseconds */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /** @return the longest recorded duration in nanoseconds, 0 if none */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Returns the duration that the given percentage of the recorded durations do not exceed,
+     * rounded up to the end of its bucket (but not beyond the maximum).
+     * @param percentile between 0 and 100
+     * @return the duration in nanoseconds, 0 if nothing was recorded */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        // the total of the buckets themselves, consistent with the scan below
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long cumulated = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            cumulated += counts.get(i);
+            if (cumulated >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return getMean() * 1e-3;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return getValueAtPercentile(50) * 1e-3;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return getValueAtPercentile(90) * 1e-3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return getValueAtPercentile(99) * 1e-3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return getValueAtPercentile(99.9) * 1e-3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return getMax() * 1e-3;
+    }
+
+    /** Forgets every recorded duration. */
+    @Override
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", getCount(),
+                getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+    }
+
+    /** Test client: checks the bucket layout and the percentiles of a known distribution, and
+     * times record(). */
+    public static void main(String[] args) {
+        // every value falls in a bucket whose bounds contain it, buckets are contiguous
+        for (int i = 1; i < (MAX_SHIFT + 2) * SUB_COUNT; i++) {
+            if (indexOf(highestValueOf(i - 1) + 1) != i || indexOf(highestValueOf(i)) != i) {
+                throw new AssertionError("Bucket " + i + " is not contiguous");
+            }
+        }
+        System.out.println("Buckets: " + (MAX_SHIFT + 2) * SUB_COUNT + ", highest value " + highestValueOf(
+                (MAX_SHIFT + 2) * SUB_COUNT - 1) + " ns");
+
+        // uniform durations from 1 to 1000000 ns: the p-th percentile is p*10000 ns
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 1; v <= 1_000_000; v++) {
+            histogram.record(v);
+        }
+        for (double p : new double[] {50, 90, 99, 99.9, 100}) {
+            long expected = (long) (p * 10000);
+            long value = histogram.getValueAtPercentile(p);
+            System.out.printf("p%-5s %8d ns (expected %8d, error %.2f%%)%n", p, value, expected,
+                    100.0 * (value - expected) / expected);
+        }
+        System.out.println(histogram);
+
+        int iterations = 10_000_000;
+        long time = 0;
+        for (int pass = 0; pass < 3; pass++) {
+            histogram.reset();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                histogram.record(i & 0xFFFFF);
+            }
+            time = System.nanoTime() - start;
+        }
+        System.out.printf("record(): %.1f ns%n", (double) time / iterations);
+    }
+}
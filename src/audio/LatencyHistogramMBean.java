@@ -0,0 +1,13 @@
+package audio;
+
+/** JMX view of a {@link LatencyHistogram}, in microseconds. */
+public interface LatencyHistogramMBean {
+    long getCount();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP90Micros();
+    double getP99Micros();
+    double getP999Micros();
+    double getMaxMicros();
+    void reset();
+}
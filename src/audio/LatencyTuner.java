@@ -0,0 +1,205 @@
+package audio;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/** Chooses the block size and the buffering of a capture session, looking for the lowest latency
+ * that plays without glitches on the host.
+ *
+ * A {@link Setting} is a block size and a number of pre-roll blocks: silent blocks written ahead to
+ * the output line so that processing may be late by that much without an underrun. Its nominal
+ * latency is (preRoll + 2) blocks, one being captured and one playing, which is also the size
+ * given to both line buffers. The candidates are every power of 2 block size from 64 to 8192
+ * with up to 7 pre-roll blocks, within the latency bounds, sorted by latency.
+ *
+ * evaluate() is called periodically with the stats of the session. The first period after a
+ * change is ignored, since it includes the restart. Any overrun or underrun during a period moves
+ * to a higher latency: a larger block size if the processing missed its
+ * deadline (not enough headroom), more pre-roll otherwise (scheduling jitter). After a number of
+ * clean periods, with enough processing headroom, it tries the next lower latency. A setting
+ * that glitched is tried again after twice as many clean periods as the last time, so the tuner
+ * settles on the lowest setting that stays clean while still noticing when the host gets quieter.
+ *
+ * Not thread safe: meant to be used by one tuning thread.
+ *
+ * Example of use:
+ * LatencyTuner tuner = new LatencyTuner(44100, 0.005, 0.2, 1024);
+ * session.setLatencyTuner(tuner); // the session calls evaluate() every second and applies the result
+ */
+public class LatencyTuner {
+    static final int MIN_FRAME_SIZE = 64;
+    static final int MAX_FRAME_SIZE = 8192;
+    static final int MAX_PRE_ROLL = 7;
+    private static final int MIN_BLOCKS = 20;        // fewer blocks in a period are not conclusive
+    private static final int STABLE_PERIODS = 2;     // clean periods before trying a lower latency
+    private static final int MAX_BACKOFF = 6;        // at most 2^6 times STABLE_PERIODS
+    private static final double MIN_HEADROOM = 0.5;  // fraction of the block left idle by the processing
+
+    /** A block size and a number of pre-roll blocks. */
+    public static final class Setting {
+        private final int frameSize;
+        private final int preRoll;
+        private int failures; // times this setting glitched
+
+        Setting(int frameSize, int preRoll) {
+            this.frameSize = frameSize;
+            this.preRoll = preRoll;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        /** @return the number of silent blocks written ahead to the output */
+        public int getPreRoll() {
+            return preRoll;
+        }
+
+        /** @return the size of the line buffers, in frames */
+        public int getBufferFrames() {
+            return (preRoll + 2) * frameSize;
+        }
+
+        /** @return the nominal latency in frames, the same as the buffer size */
+        public int getLatencyFrames() {
+            return getBufferFrames();
+        }
+
+        @Override
+        public String toString() {
+            return frameSize + " frames + " + preRoll + " pre-roll";
+        }
+    }
+
+    private final double sampleRate;
+    private final List<Setting> candidates = new ArrayList<>();
+    private int current;
+    private int cleanPeriods;
+    private boolean settling = true; // the first period after a change includes the restart
+
+    // counters of the stats at the previous evaluation
+    private long lastBlocks, lastGlitches, lastMisses, lastProcessNanos;
+
+    /** @param minLatency the lowest latency to try, in seconds
+     * @param maxLatency the highest latency allowed, in seconds
+     * @param frameSize the block size to start from: the lowest latency setting with this block size,
+     * or the lowest latency setting if this block size is not a candidate */
+    public LatencyTuner(double sampleRate, double minLatency, double maxLatency, int frameSize) {
+        if (!(sampleRate > 0) || !(minLatency >= 0) || !(maxLatency >= minLatency)) {
+            throw new IllegalArgumentException("Invalid rate or latency bounds");
+        }
+        this.sampleRate = sampleRate;
+        for (int size = MIN_FRAME_SIZE; size <= MAX_FRAME_SIZE; size *= 2) {
+            for (int preRoll = 0; preRoll <= MAX_PRE_ROLL; preRoll++) {
+                double latency = (preRoll + 2) * size / sampleRate;
+                if (latency >= minLatency && latency <= maxLatency) {
+                    candidates.add(new Setting(size, preRoll));
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No block size fits between " + minLatency + " and " + maxLatency + " s");
+        }
+        // equal latencies: smaller blocks first, more pre-roll absorbs more jitter
+        candidates.sort(Comparator.comparingInt(Setting::getLatencyFrames).thenComparingInt(Setting::getFrameSize));
+
+        current = 0;
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (candidates.get(i).getFrameSize() == frameSize) current = i;
+        }
+    }
+
+    /** @return the setting to use */
+    public Setting getSetting() {
+        return candidates.get(current);
+    }
+
+    /** @return every setting the tuner may choose, from the lowest latency */
+    public List<Setting> getCandidates() {
+        return List.copyOf(candidates);
+    }
+
+    /** Looks at what happened since the previous call and returns the setting to use next, the
+     * current one or another one. The stats must keep counting across changes of setting. */
+    public Setting evaluate(ProcessingStats stats) {
+        long blocks = stats.getBlocks();
+        long glitches = stats.getOverruns() + stats.getUnderruns();
+        long misses = stats.getDeadlineMisses();
+        long processNanos = stats.getHistogram(ProcessingStats.Stage.PROCESS).getSum();
+        long newBlocks = blocks - lastBlocks, newGlitches = glitches - lastGlitches, newMisses = misses - lastMisses;
+        long newProcessNanos = processNanos - lastProcessNanos;
+        if (newBlocks < MIN_BLOCKS && newGlitches == 0) {
+            return getSetting(); // keep counting
+        }
+        lastBlocks = blocks;
+        lastGlitches = glitches;
+        lastMisses = misses;
+        lastProcessNanos = processNanos;
+        if (settling) {
+            settling = false;
+            return getSetting();
+        }
+
+        Setting setting = getSetting();
+        int previous = current;
+        if (newGlitches > 0) {
+            setting.failures = Math.min(setting.failures + 1, MAX_BACKOFF);
+            cleanPeriods = 0;
+            moveUp(newMisses > 0);
+        } else if (++cleanPeriods >= STABLE_PERIODS && current > 0) {
+            double blockNanos = setting.getFrameSize() * 1e9 / sampleRate;
+            double headroom = 1 - newProcessNanos / (newBlocks * blockNanos);
+            Setting lower = candidates.get(current - 1);
+            // a smaller block leaves less headroom, the per block overhead being the same
+            boolean enoughHeadroom = lower.getFrameSize() >= setting.getFrameSize() || headroom >= MIN_HEADROOM;
+            if (enoughHeadroom && cleanPeriods >= STABLE_PERIODS << lower.failures) {
+                current--;
+                cleanPeriods = 0;
+            }
+        }
+        settling = current != previous;
+        return getSetting();
+    }
+
+    // the next higher latency, with a larger block size if the processing was too slow
+    private void moveUp(boolean needsHeadroom) {
+        int frameSize = getSetting().getFrameSize();
+        for (int i = current + 1; i < candidates.size(); i++) {
+            if (!needsHeadroom || candidates.get(i).getFrameSize() > frameSize) {
+                current = i;
+                return;
+            }
+        }
+        if (current + 1 < candidates.size()) current++;
+    }
+
+    /** Test client: simulates a host where processing takes 300 us per block plus 20 us per 64 frames,
+     * with a scheduling jitter of up to 6 ms, and prints the settings the tuner goes through. */
+    public static void main(String[] args) {
+        double rate = 44100;
+        LatencyTuner tuner = new LatencyTuner(rate, 0.001, 0.25, 1024);
+        ProcessingStats stats = new ProcessingStats(1024 / rate);
+        java.util.Random random = new java.util.Random(1);
+        Setting setting = tuner.getSetting();
+        System.out.println("Start: " + setting);
+        for (int period = 0; period < 600; period++) {
+            double blockSeconds = setting.getFrameSize() / rate;
+            int blocks = (int) (1 / blockSeconds);
+            for (int b = 0; b < blocks; b++) {
+                double process = 300e-6 + 20e-6 * setting.getFrameSize() / 64;
+                double jitter = random.nextDouble() < 0.02 ? random.nextDouble() * 6e-3 : 0;
+                stats.record(ProcessingStats.Stage.PROCESS, (long) (process * 1e9));
+                // late by more than the pre-roll: the output runs dry
+                if (process + jitter > (setting.getPreRoll() + 1) * blockSeconds) stats.countUnderrun();
+            }
+            Setting next = tuner.evaluate(stats);
+            if (next != setting) {
+                stats.setBlockDuration(next.getFrameSize() / rate);
+                System.out.printf("Period %3d: %-24s %.1f ms%n", period, next, next.getLatencyFrames() * 1e3 / rate);
+                setting = next;
+            }
+        }
+        System.out.printf("Settled on %s, %.1f ms%n", setting, setting.getLatencyFrames() * 1e3 / rate);
+    }
+}
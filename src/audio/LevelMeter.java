@@ -0,0 +1,70 @@
+package audio;
+
+/** Measures the peak and RMS level of the samples going through it, leaving them unchanged.
+ * Meters of separate parts of a signal can be merged. Not thread safe. */
+public class LevelMeter implements AudioEffect {
+    private double peak;
+    private double sumOfSquares;
+    private long samples;
+
+    @Override
+    public void process(double[] in, double[] out, int n) {
+        double p = peak, sum = 0;
+        for (int i = 0; i < n; i++) {
+            double x = in[i];
+            p = Math.max(p, Math.abs(x));
+            sum += x * x;
+            out[i] = x;
+        }
+        peak = p;
+        sumOfSquares += sum;
+        samples += n;
+    }
+
+    @Override
+    public void process(float[] in, float[] out, int n) {
+        double p = peak, sum = 0;
+        for (int i = 0; i < n; i++) {
+            float x = in[i];
+            p = Math.max(p, Math.abs(x));
+            sum += (double) x * x;
+            out[i] = x;
+        }
+        peak = p;
+        sumOfSquares += sum;
+        samples += n;
+    }
+
+    @Override
+    public boolean supportsFloat() {
+        return true;
+    }
+
+    /** Adds the measures of another meter to this one. */
+    public void merge(LevelMeter other) {
+        peak = Math.max(peak, other.peak);
+        sumOfSquares += other.sumOfSquares;
+        samples += other.samples;
+    }
+
+    /** @return the highest absolute sample value, in dB full scale */
+    public double getPeakDb() {
+        return 20 * Math.log10(peak + 1e-12);
+    }
+
+    /** @return the RMS level, in dB full scale */
+    public double getRmsDb() {
+        return 10 * Math.log10((samples > 0 ? sumOfSquares / samples : 0) + 1e-12);
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public void reset() {
+        peak = 0;
+        sumOfSquares = 0;
+        samples = 0;
+    }
+}
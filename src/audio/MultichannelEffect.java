@@ -0,0 +1,227 @@
+package audio;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/** Applies one {@link AudioEffect} instance per channel to planar multichannel buffers.
+ *
+ * Channels are independent, so they can be processed on several cores: given a ForkJoinPool,
+ * process() hands every channel but the first to the pool and processes the first one itself. Each
+ * channel is then claimed by whichever thread gets to it first, the caller or a worker, so the
+ * caller goes on with the channels that no worker has started yet, and only waits for the ones
+ * being processed: it spins (then yields) for up to SPIN_NANOS, then parks until they are done.
+ * Nothing is allocated: the per channel tasks are allocated once, and a task still queued from a
+ * previous block is not submitted again but picks up the current block if it runs before the
+ * caller claims it. The pool should be dedicated to the audio, since the caller ends up processing
+ * every channel itself when the workers are busy with other work.
+ *
+ * Example of use:
+ * MultichannelEffect eq = MultichannelEffect.of(8, () -> new ParametricEqualizer(4, 48000));
+ * eq.process(in.getChannelBuffers(), out.getChannelBuffers(), 1024, pool);
+ */
+public final class MultichannelEffect {
+    private static final long SPIN_NANOS = 200_000; // longer waits park instead of burning a core
+    private static final int BUSY_SPINS = 100;       // then the waiting thread yields to the workers
+
+    private final AudioEffect[] effects;
+    private final ChannelTask[] tasks;
+
+    /** @param effects one effect per channel, distinct instances */
+    public MultichannelEffect(AudioEffect... effects) {
+        if (effects.length == 0) throw new IllegalArgumentException("At least one channel is needed");
+        this.effects = effects.clone();
+        this.tasks = new ChannelTask[effects.length];
+        for (int c = 0; c < effects.length; c++) {
+            if (effects[c] == null) throw new IllegalArgumentException("null effect");
+            tasks[c] = new ChannelTask(effects[c]);
+        }
+    }
+
+    /** @return a multichannel effect made of channels instances built by the factory */
+    public static MultichannelEffect of(int channels, Supplier<? extends AudioEffect> factory) {
+        AudioEffect[] effects = new AudioEffect[channels];
+        for (int c = 0; c < channels; c++) {
+            effects[c] = factory.get();
+        }
+        return new MultichannelEffect(effects);
+    }
+
+    public int getChannels() {
+        return effects.length;
+    }
+
+    public AudioEffect getEffect(int channel) {
+        return effects[channel];
+    }
+
+    /** @return true if every channel effect supports single precision */
+    public boolean supportsFloat() {
+        for (AudioEffect effect : effects) {
+            if (!effect.supportsFloat()) return false;
+        }
+        return true;
+    }
+
+    /** Processes in[c][0..n-1] into out[c][0..n-1] for every channel c, on the calling thread. */
+    public void process(double[][] in, double[][] out, int n) {
+        for (int c = 0; c < effects.length; c++) {
+            effects[c].process(in[c], out[c], n);
+        }
+    }
+
+    /** Same as process(in, out, n), with the channels spread over the pool when it is not null. */
+    public void process(double[][] in, double[][] out, int n, ForkJoinPool pool) {
+        if (pool == null || effects.length == 1) {
+            process(in, out, n);
+            return;
+        }
+        for (int c = 1; c < tasks.length; c++) {
+            tasks[c].set(in[c], out[c], n);
+            submit(tasks[c], pool);
+        }
+        try {
+            effects[0].process(in[0], out[0], n);
+        } finally {
+            awaitTasks(); // the tasks must be finished before the next block reuses them
+        }
+    }
+
+    /** Single precision version of process(double[][], double[][], int). */
+    public void process(float[][] in, float[][] out, int n) {
+        for (int c = 0; c < effects.length; c++) {
+            effects[c].process(in[c], out[c], n);
+        }
+    }
+
+    /** Single precision version of process(double[][], double[][], int, ForkJoinPool). */
+    public void process(float[][] in, float[][] out, int n, ForkJoinPool pool) {
+        if (pool == null || effects.length == 1) {
+            process(in, out, n);
+            return;
+        }
+        for (int c = 1; c < tasks.length; c++) {
+            tasks[c].set(in[c], out[c], n);
+            submit(tasks[c], pool);
+        }
+        try {
+            effects[0].process(in[0], out[0], n);
+        } finally {
+            awaitTasks(); // the tasks must be finished before the next block reuses them
+        }
+    }
+
+    // a task still queued or running since a previous block will claim this block's channel when it
+    // runs, so that a task is never queued twice
+    private static void submit(ChannelTask task, ForkJoinPool pool) {
+        if (!task.submitted || task.isDone()) {
+            task.submitted = true;
+            task.reinitialize();
+            pool.execute(task);
+        }
+    }
+
+    // processes the channels that no worker has started, then waits for the others, and rethrows
+    // the first exception of a channel, if any
+    private void awaitTasks() {
+        Throwable failure = null;
+        for (int c = 1; c < tasks.length; c++) {
+            if (tasks[c].claim()) tasks[c].processChannel();
+        }
+        long deadline = System.nanoTime() + SPIN_NANOS;
+        int spins = 0;
+        for (int c = 1; c < tasks.length; c++) {
+            ChannelTask task = tasks[c];
+            while (!task.finished) {
+                if (System.nanoTime() - deadline < 0) {
+                    if (++spins < BUSY_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield(); // the workers may be waiting for this core
+                    }
+                } else {
+                    task.waiter = Thread.currentThread();
+                    if (!task.finished) LockSupport.park(this);
+                    task.waiter = null;
+                }
+            }
+            if (failure == null) failure = task.failure;
+        }
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+    }
+
+    public void reset() {
+        for (AudioEffect effect : effects) {
+            effect.reset();
+        }
+    }
+
+    // processes one channel of the current block, on the thread that claims it first
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class ChannelTask extends RecursiveAction {
+        private final AudioEffect effect;
+        private final AtomicBoolean claimed = new AtomicBoolean(true);
+        private double[] in, out;
+        private float[] floatIn, floatOut; // used instead of in and out when not null
+        private int n;
+        private volatile boolean finished = true;
+        private volatile Throwable failure;
+        private volatile Thread waiter;    // the caller parked until the channel is finished, if any
+        private boolean submitted;         // caller side: the task was executed at least once
+
+        ChannelTask(AudioEffect effect) {
+            this.effect = effect;
+        }
+
+        // called once the previous block is finished, the claim being released last
+        void set(double[] in, double[] out, int n) {
+            this.in = in;
+            this.out = out;
+            this.floatIn = null;
+            this.floatOut = null;
+            this.n = n;
+            open();
+        }
+
+        void set(float[] in, float[] out, int n) {
+            this.floatIn = in;
+            this.floatOut = out;
+            this.n = n;
+            open();
+        }
+
+        private void open() {
+            failure = null;
+            finished = false;
+            claimed.set(false);
+        }
+
+        boolean claim() {
+            return !claimed.get() && claimed.compareAndSet(false, true);
+        }
+
+        void processChannel() {
+            try {
+                if (floatIn != null) {
+                    effect.process(floatIn, floatOut, n);
+                } else {
+                    effect.process(in, out, n);
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                finished = true;
+                Thread thread = waiter;
+                if (thread != null) LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (claim()) processChannel();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/** Runs a WAV file through the same per channel effects as {@link AudioProcessor}, as fast as the
+ * CPU allows instead of at the pace of an audio device.
+ *
+ * Blocks are read from a memory mapped {@link WavFileReader}, processed by a
+ * {@link MultichannelEffect} and written to a memory mapped {@link WavFileWriter} in the same
+ * format. Every block has the full frame size, the last one being padded with silence, so that
+ * effects requiring a fixed block size work unchanged.
+ *
+ * With {@link Precision#FLOAT}, blocks are decoded to float buffers and processed by the float
+ * path of the effects, which halves the memory traffic of every block.
+ *
+ * The file can also be converted to another sample rate by a {@link Resampler} per channel before
+ * the effects, which then run at the new rate: downsampling early makes them cheaper.
+ *
+ * Example of use:
+ * OfflineProcessor processor = new OfflineProcessor(1024);
+ * processor.process(Path.of("in.wav"), Path.of("out.wav"), () -> new GainEffect(-6));
+ * processor.process(Path.of("in.wav"), Path.of("out16k.wav"), 16000, () -> new GainEffect(-6));
+ */
+public class OfflineProcessor {
+    private final int frameSize;
+    private ForkJoinPool channelPool; // processes channels in parallel, if not null
+    private Precision precision = Precision.DOUBLE;
+
+    /** @param frameSize the number of frames given to the effects at once */
+    public OfflineProcessor(int frameSize) {
+        if (frameSize < 1) throw new IllegalArgumentException("frameSize must be positive");
+        this.frameSize = frameSize;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** Sets the pool processing the channels of each block in parallel, null for the calling thread. */
+    public void setChannelPool(ForkJoinPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /** Sets the type of the samples given to the effects, DOUBLE by default. The resampling
+     * process() always works in double precision. */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /** Processes the whole input file into the output file.
+     * @param factory builds one effect per channel, processing blocks of getFrameSize() samples
+     * @return the number of frames processed
+     * @throws IllegalArgumentException in FLOAT precision, if the effects have no single precision path */
+    public long process(Path input, Path output, Supplier<? extends AudioEffect> factory) throws IOException {
+        try (WavFileReader reader = new WavFileReader(input)) {
+            int channels = reader.getFormat().getChannels();
+            MultichannelEffect effect = MultichannelEffect.of(channels, factory);
+            if (precision == Precision.FLOAT && !effect.supportsFloat()) {
+                throw new IllegalArgumentException("The effect has no single precision path");
+            }
+
+            try (WavFileWriter writer = new WavFileWriter(output, reader.getFormat(), reader.getFrames())) {
+                int count;
+                if (precision == Precision.FLOAT) {
+                    FloatAudioSignal in = new FloatAudioSignal(frameSize, channels);
+                    FloatAudioSignal out = new FloatAudioSignal(frameSize, channels);
+                    while ((count = reader.read(in)) > 0) {
+                        effect.process(in.getChannelBuffers(), out.getChannelBuffers(), frameSize, channelPool);
+                        writer.write(out, count);
+                    }
+                } else {
+                    AudioSignal in = new AudioSignal(frameSize, channels);
+                    AudioSignal out = new AudioSignal(frameSize, channels);
+                    while ((count = reader.read(in)) > 0) {
+                        effect.process(in.getChannelBuffers(), out.getChannelBuffers(), frameSize, channelPool);
+                        writer.write(out, count);
+                    }
+                }
+                return writer.getPosition();
+            }
+        }
+    }
+
+    /** Converts the whole input file to another sample rate, then processes it into the output file.
+     * @param outputRate the sample rate of the output file, in Hz
+     * @param factory builds one effect per channel, processing blocks of getFrameSize() samples at outputRate
+     * @return the number of frames written */
+    public long process(Path input, Path output, int outputRate, Supplier<? extends AudioEffect> factory) throws IOException {
+        if (outputRate < 1) throw new IllegalArgumentException("outputRate must be positive");
+        float inputRate;
+        try (WavFileReader reader = new WavFileReader(input)) {
+            inputRate = reader.getFormat().getSampleRate();
+        }
+        if (inputRate == outputRate) return process(input, output, factory);
+
+        try (WavFileReader reader = new WavFileReader(input)) {
+            AudioFormat inputFormat = reader.getFormat();
+            AudioFormat format = new AudioFormat(inputFormat.getEncoding(), outputRate, inputFormat.getSampleSizeInBits(),
+                    inputFormat.getChannels(), inputFormat.getFrameSize(), outputRate, inputFormat.isBigEndian());
+            long frames = (long) Math.ceil(reader.getFrames() * (double) outputRate / inputRate);
+
+            try (WavFileWriter writer = new WavFileWriter(output, format, frames)) {
+                int channels = format.getChannels();
+                AudioSignal in = new AudioSignal(frameSize, channels);
+                AudioSignal resampled = new AudioSignal(frameSize, channels);
+                AudioSignal out = new AudioSignal(frameSize, channels);
+                MultichannelEffect effect = MultichannelEffect.of(channels, factory);
+                Resampler[] resamplers = new Resampler[channels];
+                double[][] pending = new double[channels][];
+                for (int c = 0; c < channels; c++) {
+                    resamplers[c] = new Resampler(inputRate, outputRate);
+                    pending[c] = new double[frameSize + Math.max(resamplers[c].maxOutput(frameSize), resamplers[c].maxOutput(0))];
+                }
+
+                // resampled frames accumulate in pending until they fill a block
+                int pendingFrames = 0;
+                boolean flushed = false;
+                while (!flushed) {
+                    int count = reader.read(in);
+                    int produced = 0;
+                    for (int c = 0; c < channels; c++) {
+                        produced = count > 0
+                                ? resamplers[c].process(in.getChannelBuffer(c), 0, count, pending[c], pendingFrames)
+                                : resamplers[c].flush(pending[c], pendingFrames);
+                    }
+                    flushed = count <= 0;
+                    pendingFrames += produced;
+
+                    int offset = 0;
+                    while (pendingFrames - offset >= frameSize || flushed && offset < pendingFrames) {
+                        int block = Math.min(frameSize, pendingFrames - offset);
+                        for (int c = 0; c < channels; c++) {
+                            double[] buffer = resampled.getChannelBuffer(c);
+                            System.arraycopy(pending[c], offset, buffer, 0, block);
+                            Arrays.fill(buffer, block, frameSize, 0.0);
+                        }
+                        effect.process(resampled.getChannelBuffers(), out.getChannelBuffers(), frameSize, channelPool);
+                        writer.write(out, block);
+                        offset += block;
+                    }
+                    for (int c = 0; c < channels; c++) {
+                        System.arraycopy(pending[c], offset, pending[c], 0, pendingFrames - offset);
+                    }
+                    pendingFrames -= offset;
+                }
+                return writer.getPosition();
+            }
+        }
+    }
+
+    /** Test client: processes a generated file with a 4 band equalizer, at its own rate and
+     * converted to 16 kHz, or the given input file into the given output file, and reports the speed.
+     * @param args [input.wav output.wav [outputRate]] */
+    public static void main(String[] args) throws IOException {
+        Path input, output;
+        int[] rates = {0, 16000}; // 0 for the rate of the input
+        if (args.length >= 2) {
+            input = Path.of(args[0]);
+            output = Path.of(args[1]);
+            rates = new int[] {args.length > 2 ? Integer.parseInt(args[2]) : 0};
+        } else {
+            // one minute of stereo 24 bit noise
+            input = java.nio.file.Files.createTempFile("offline-in", ".wav");
+            output = java.nio.file.Files.createTempFile("offline-out", ".wav");
+            AudioFormat format = new AudioFormat(44100, 24, 2, true, false);
+            long frames = 60 * 44100;
+            AudioSignal noise = new AudioSignal(4096, 2);
+            java.util.Random random = new java.util.Random(1);
+            try (WavFileWriter writer = new WavFileWriter(input, format, frames)) {
+                for (long written = 0; written < frames; written += 4096) {
+                    for (double[] channel : noise.getChannelBuffers()) {
+                        for (int i = 0; i < channel.length; i++) channel[i] = 0.25 * random.nextGaussian();
+                    }
+                    writer.write(noise, (int) Math.min(4096, frames - written));
+                }
+            }
+            input.toFile().deleteOnExit();
+            output.toFile().deleteOnExit();
+        }
+
+        float inputRate;
+        long inputFrames;
+        try (WavFileReader reader = new WavFileReader(input)) {
+            inputRate = reader.getFormat().getSampleRate();
+            inputFrames = reader.getFrames();
+        }
+        OfflineProcessor processor = new OfflineProcessor(1024);
+        for (int rate : rates) {
+            int outputRate = rate > 0 ? rate : (int) inputRate;
+            // resampling always works in double precision
+            Precision[] precisions = outputRate == inputRate ? Precision.values() : new Precision[] {Precision.DOUBLE};
+            for (Precision precision : precisions) {
+                processor.setPrecision(precision);
+                for (int pass = 0; pass < 3; pass++) {
+                    long start = System.nanoTime();
+                    long frames = processor.process(input, output, outputRate, () -> {
+                        ParametricEqualizer eq = new ParametricEqualizer(4, outputRate);
+                        eq.setBand(0, Biquad.Type.HIGH_PASS, 60, 0.707, 0);
+                        eq.setBand(1, Biquad.Type.PEAKING, 1000, 1, 6);
+                        return eq;
+                    });
+                    double seconds = (System.nanoTime() - start) * 1e-9;
+                    System.out.printf("%d Hz %s: %d frames in %.3f s, %.0f x real time%n", outputRate,
+                            precision, frames, seconds, inputFrames / inputRate / seconds);
+                }
+            }
+        }
+    }
+}
+
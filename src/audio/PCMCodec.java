@@ -0,0 +1,317 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Converts between PCM bytes, as read from or written to a data line, and double samples in [-1, 1)
+ * (float samples for the channel methods used by {@link Precision#FLOAT} pipelines).
+ *
+ * Supports signed and unsigned integer samples of 8, 16, 24 and 32 bits and 32 bit float samples,
+ * in either byte order and with any number of interleaved channels. Samples are read and written
+ * with byte array (or byte buffer) view VarHandles, and nothing is allocated after construction:
+ * the caller owns both the byte and the double buffers and may reuse them for every block.
+ *
+ * Encoding clips to the sample range and rounds to the nearest integer value.
+ *
+ * Example of use:
+ * PCMCodec codec = new PCMCodec(line.getFormat());
+ * byte[] bytes = new byte[1024 * codec.getFrameBytes()];
+ * line.read(bytes, 0, bytes.length);
+ * codec.decodeMixdown(bytes, 0, samples, 0, 1024);
+ */
+public final class PCMCodec {
+    // little endian views, the byte order is swapped with reverseBytes for big endian formats
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUFFER_SHORT = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUFFER_INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final AudioFormat format;
+    private final int bits;           // 8, 16, 24 or 32
+    private final int sampleBytes;
+    private final int channels;
+    private final boolean bigEndian;
+    private final boolean floating;   // 32 bit IEEE float
+    private final int signFlip;       // sign bit to flip for unsigned samples, 0 for signed ones
+    private final double toDouble;    // integer to [-1, 1) scale
+    private final double fromDouble;  // [-1, 1) to integer scale
+    private final long maxValue;      // largest integer sample
+
+    /** @throws IllegalArgumentException if the encoding or sample size is not supported */
+    public PCMCodec(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        boolean floating = AudioFormat.Encoding.PCM_FLOAT.equals(encoding);
+        boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+
+        boolean supported = floating
+                ? bits == 32
+                : (unsigned || AudioFormat.Encoding.PCM_SIGNED.equals(encoding))
+                        && (bits == 8 || bits == 16 || bits == 24 || bits == 32);
+        if (!supported) {
+            throw new IllegalArgumentException("Unsupported PCM format: " + format);
+        }
+        if (format.getChannels() < 1 || format.getFrameSize() != bits / 8 * format.getChannels()) {
+            throw new IllegalArgumentException("Unsupported frame layout: " + format);
+        }
+
+        this.format = format;
+        this.bits = bits;
+        this.sampleBytes = bits / 8;
+        this.channels = format.getChannels();
+        this.bigEndian = format.isBigEndian();
+        this.floating = floating;
+        this.signFlip = unsigned ? 1 << (bits - 1) : 0;
+        this.maxValue = (1L << (bits - 1)) - 1;
+        this.fromDouble = (double) (1L << (bits - 1));
+        this.toDouble = 1 / fromDouble;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /** @return the number of bytes of one frame, i.e. one sample of every channel */
+    public int getFrameBytes() {
+        return sampleBytes * channels;
+    }
+
+    /** Decodes samples interleaved samples (samples / channels frames) from src[offset..]
+     * into dst[dstOffset..dstOffset+samples-1]. */
+    public void decode(byte[] src, int offset, double[] dst, int dstOffset, int samples) {
+        decode(src, offset, sampleBytes, dst, dstOffset, samples);
+    }
+
+    /** Decodes one channel of frames frames from src[offset..] into dst[dstOffset..dstOffset+frames-1]. */
+    public void decodeChannel(byte[] src, int offset, int channel, double[] dst, int dstOffset, int frames) {
+        decode(src, offset + channel * sampleBytes, getFrameBytes(), dst, dstOffset, frames);
+    }
+
+    /** Decodes frames frames from src[offset..] into dst[dstOffset..dstOffset+frames-1], averaging the channels. */
+    public void decodeMixdown(byte[] src, int offset, double[] dst, int dstOffset, int frames) {
+        decodeChannel(src, offset, 0, dst, dstOffset, frames);
+        if (channels == 1) return;
+
+        int frameBytes = getFrameBytes();
+        for (int c = 1; c < channels; c++) {
+            accumulate(src, offset + c * sampleBytes, frameBytes, dst, dstOffset, frames);
+        }
+        double scale = 1.0 / channels;
+        for (int i = dstOffset; i < dstOffset + frames; i++) {
+            dst[i] *= scale;
+        }
+    }
+
+    /** Same as decodeChannel(byte[], ...), reading from a byte buffer such as a mapped file region.
+     * The buffer position and byte order are ignored. */
+    public void decodeChannel(ByteBuffer src, int offset, int channel, double[] dst, int dstOffset, int frames) {
+        decode(src, offset + channel * sampleBytes, getFrameBytes(), dst, dstOffset, frames);
+    }
+
+    /** Encodes src[srcOffset..srcOffset+samples-1] as interleaved samples into dst[offset..]. */
+    public void encode(double[] src, int srcOffset, byte[] dst, int offset, int samples) {
+        encode(src, srcOffset, dst, offset, sampleBytes, samples);
+    }
+
+    /** Encodes src[srcOffset..srcOffset+frames-1] into one channel of frames frames of dst[offset..],
+     * leaving the other channels untouched. */
+    public void encodeChannel(double[] src, int srcOffset, byte[] dst, int offset, int channel, int frames) {
+        encode(src, srcOffset, dst, offset + channel * sampleBytes, getFrameBytes(), frames);
+    }
+
+    /** Same as encodeChannel(..., byte[], ...), writing to a byte buffer such as a mapped file region.
+     * The buffer position and byte order are ignored. */
+    public void encodeChannel(double[] src, int srcOffset, ByteBuffer dst, int offset, int channel, int frames) {
+        encode(src, srcOffset, dst, offset + channel * sampleBytes, getFrameBytes(), frames);
+    }
+
+    /** Single precision version of decodeChannel(ByteBuffer, ...). */
+    public void decodeChannel(ByteBuffer src, int offset, int channel, float[] dst, int dstOffset, int frames) {
+        int p = offset + channel * sampleBytes, stride = getFrameBytes();
+        for (int i = dstOffset; i < dstOffset + frames; i++, p += stride) {
+            dst[i] = (float) toDouble(get(src, p));
+        }
+    }
+
+    /** Single precision version of encodeChannel(..., ByteBuffer, ...). */
+    public void encodeChannel(float[] src, int srcOffset, ByteBuffer dst, int offset, int channel, int frames) {
+        int p = offset + channel * sampleBytes, stride = getFrameBytes();
+        for (int i = srcOffset; i < srcOffset + frames; i++, p += stride) {
+            set(dst, p, fromDouble(src[i]));
+        }
+    }
+
+    /** Encodes src[srcOffset..srcOffset+frames-1] into frames frames of dst[offset..], the same sample
+     * being sent to every channel. */
+    public void encodeReplicated(double[] src, int srcOffset, byte[] dst, int offset, int frames) {
+        encodeChannel(src, srcOffset, dst, offset, 0, frames);
+        int frameBytes = getFrameBytes();
+        for (int c = 1; c < channels; c++) {
+            for (int i = 0, p = offset; i < frames; i++, p += frameBytes) {
+                System.arraycopy(dst, p, dst, p + c * sampleBytes, sampleBytes);
+            }
+        }
+    }
+
+    // decodes count samples, stride bytes apart, into dst[dstOffset..]
+    private void decode(byte[] src, int p, int stride, double[] dst, int dstOffset, int count) {
+        for (int i = dstOffset; i < dstOffset + count; i++, p += stride) {
+            dst[i] = toDouble(get(src, p));
+        }
+    }
+
+    private void decode(ByteBuffer src, int p, int stride, double[] dst, int dstOffset, int count) {
+        for (int i = dstOffset; i < dstOffset + count; i++, p += stride) {
+            dst[i] = toDouble(get(src, p));
+        }
+    }
+
+    // adds count samples, stride bytes apart, to dst[dstOffset..]
+    private void accumulate(byte[] src, int p, int stride, double[] dst, int dstOffset, int count) {
+        for (int i = dstOffset; i < dstOffset + count; i++, p += stride) {
+            dst[i] += toDouble(get(src, p));
+        }
+    }
+
+    private void encode(double[] src, int i, byte[] dst, int p, int stride, int count) {
+        for (int end = i + count; i < end; i++, p += stride) {
+            set(dst, p, fromDouble(src[i]));
+        }
+    }
+
+    private void encode(double[] src, int i, ByteBuffer dst, int p, int stride, int count) {
+        for (int end = i + count; i < end; i++, p += stride) {
+            set(dst, p, fromDouble(src[i]));
+        }
+    }
+
+    // the format fields are final and the branches loop invariant, so the JIT reduces these to straight code
+
+    // the raw sample bits at p, in native order, sign extended from the sample size
+    private int get(byte[] b, int p) {
+        switch (sampleBytes) {
+            case 1:
+                return b[p];
+            case 2:
+                short s = (short) SHORT.get(b, p);
+                return bigEndian ? Short.reverseBytes(s) : s;
+            case 3:
+                return bigEndian
+                        ? (b[p] << 16) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF)
+                        : (b[p + 2] << 16) | (b[p + 1] & 0xFF) << 8 | (b[p] & 0xFF);
+            default:
+                int v = (int) INT.get(b, p);
+                return bigEndian ? Integer.reverseBytes(v) : v;
+        }
+    }
+
+    private int get(ByteBuffer b, int p) {
+        switch (sampleBytes) {
+            case 1:
+                return b.get(p);
+            case 2:
+                short s = (short) BUFFER_SHORT.get(b, p);
+                return bigEndian ? Short.reverseBytes(s) : s;
+            case 3:
+                return bigEndian
+                        ? (b.get(p) << 16) | (b.get(p + 1) & 0xFF) << 8 | (b.get(p + 2) & 0xFF)
+                        : (b.get(p + 2) << 16) | (b.get(p + 1) & 0xFF) << 8 | (b.get(p) & 0xFF);
+            default:
+                int v = (int) BUFFER_INT.get(b, p);
+                return bigEndian ? Integer.reverseBytes(v) : v;
+        }
+    }
+
+    private void set(byte[] b, int p, int v) {
+        switch (sampleBytes) {
+            case 1:
+                b[p] = (byte) v;
+                break;
+            case 2:
+                short s = (short) v;
+                SHORT.set(b, p, bigEndian ? Short.reverseBytes(s) : s);
+                break;
+            case 3:
+                b[p + (bigEndian ? 2 : 0)] = (byte) v;
+                b[p + 1] = (byte) (v >> 8);
+                b[p + (bigEndian ? 0 : 2)] = (byte) (v >> 16);
+                break;
+            default:
+                INT.set(b, p, bigEndian ? Integer.reverseBytes(v) : v);
+                break;
+        }
+    }
+
+    private void set(ByteBuffer b, int p, int v) {
+        switch (sampleBytes) {
+            case 1:
+                b.put(p, (byte) v);
+                break;
+            case 2:
+                short s = (short) v;
+                BUFFER_SHORT.set(b, p, bigEndian ? Short.reverseBytes(s) : s);
+                break;
+            case 3:
+                b.put(p + (bigEndian ? 2 : 0), (byte) v);
+                b.put(p + 1, (byte) (v >> 8));
+                b.put(p + (bigEndian ? 0 : 2), (byte) (v >> 16));
+                break;
+            default:
+                BUFFER_INT.set(b, p, bigEndian ? Integer.reverseBytes(v) : v);
+                break;
+        }
+    }
+
+    private double toDouble(int raw) {
+        if (floating) return Float.intBitsToFloat(raw);
+        int shift = 32 - bits;
+        return ((raw ^ signFlip) << shift >> shift) * toDouble;
+    }
+
+    private int fromDouble(double sample) {
+        if (floating) return Float.floatToRawIntBits((float) sample);
+        long scaled = Math.round(sample * fromDouble);
+        return (int) Math.max(-maxValue - 1, Math.min(maxValue, scaled)) ^ signFlip;
+    }
+
+    /** Test client: round trips a ramp through every supported format. */
+    public static void main(String[] args) {
+        int frames = 1000;
+        double[] ramp = new double[frames];
+        for (int i = 0; i < frames; i++) {
+            ramp[i] = 2.2 * i / frames - 1.1; // clips at both ends
+        }
+
+        AudioFormat.Encoding[] encodings = {AudioFormat.Encoding.PCM_SIGNED, AudioFormat.Encoding.PCM_UNSIGNED,
+                AudioFormat.Encoding.PCM_FLOAT};
+        for (AudioFormat.Encoding encoding : encodings) {
+            for (int bits : new int[] {8, 16, 24, 32}) {
+                if (encoding == AudioFormat.Encoding.PCM_FLOAT && bits != 32) continue;
+                for (boolean bigEndian : new boolean[] {false, true}) {
+                    AudioFormat format = new AudioFormat(encoding, 44100, bits, 2, bits / 4, 44100, bigEndian);
+                    PCMCodec codec = new PCMCodec(format);
+                    byte[] bytes = new byte[frames * codec.getFrameBytes()];
+                    double[] decoded = new double[frames];
+
+                    codec.encodeReplicated(ramp, 0, bytes, 0, frames);
+                    codec.decodeMixdown(bytes, 0, decoded, 0, frames);
+
+                    double maxError = 0;
+                    for (int i = 0; i < frames; i++) {
+                        double expected = Math.max(-1, Math.min(1 - codec.toDouble, ramp[i]));
+                        if (codec.floating) expected = (float) ramp[i];
+                        maxError = Math.max(maxError, Math.abs(decoded[i] - expected));
+                    }
+                    System.out.println(format + ": max error " + maxError);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package audio;
+
+/** Parametric equalizer: a fixed number of bands, each with its own shape, frequency, Q and gain,
+ * run as a {@link BiquadCascade}. Bands can be changed from any thread while audio is running and
+ * the change glides in without clicks. All bands start as flat peaking filters.
+ *
+ * Example of use:
+ * audioProcessor.setEffect(() -> {
+ *     ParametricEqualizer eq = new ParametricEqualizer(4, 44100);
+ *     eq.setBand(0, Biquad.Type.LOW_SHELF, 120, 0.707, 3);
+ *     eq.setBand(1, Biquad.Type.PEAKING, 2500, 1.5, -2);
+ *     return eq;
+ * });
+ */
+public class ParametricEqualizer implements AudioEffect {
+
+    /** The settings of one band. */
+    public static final class Band {
+        public final Biquad.Type type;
+        public final double frequency, q, gainDb;
+
+        public Band(Biquad.Type type, double frequency, double q, double gainDb) {
+            this.type = type;
+            this.frequency = frequency;
+            this.q = q;
+            this.gainDb = gainDb;
+        }
+    }
+
+    private final BiquadCascade cascade;
+    private final double sampleRate;
+    private final Band[] bands;
+
+    public ParametricEqualizer(int bands, double sampleRate) {
+        this.cascade = new BiquadCascade(bands, sampleRate);
+        this.sampleRate = sampleRate;
+        this.bands = new Band[bands];
+        for (int band = 0; band < bands; band++) {
+            // flat bands spread over the audio range, from 100 Hz upwards
+            double frequency = Math.min(100 * Math.pow(4, band), sampleRate / 4);
+            this.bands[band] = new Band(Biquad.Type.PEAKING, frequency, 1, 0);
+            cascade.setBand(band, Biquad.design(Biquad.Type.PEAKING, frequency, 1, 0, sampleRate));
+        }
+    }
+
+    /** Changes one band. May be called from any thread.
+     * @see Biquad#design(Biquad.Type, double, double, double, double) */
+    public synchronized void setBand(int band, Biquad.Type type, double frequency, double q, double gainDb) {
+        Biquad coefficients = Biquad.design(type, frequency, q, gainDb, sampleRate);
+        bands[band] = new Band(type, frequency, q, gainDb);
+        cascade.setBand(band, coefficients);
+    }
+
+    public synchronized Band getBand(int band) {
+        return bands[band];
+    }
+
+    public int getBands() {
+        return bands.length;
+    }
+
+    @Override
+    public void process(double[] in, double[] out, int n) {
+        cascade.process(in, out, n);
+    }
+
+    @Override
+    public void process(float[] in, float[] out, int n) {
+        cascade.process(in, out, n);
+    }
+
+    @Override
+    public boolean supportsFloat() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        cascade.reset();
+    }
+}
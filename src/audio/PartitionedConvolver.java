@@ -0,0 +1,104 @@
+package audio;
+
+import math.RealFFTPlan;
+
+import java.util.Arrays;
+
+/** Low-latency convolution with long impulse responses (uniformly partitioned overlap-save).
+ *
+ * The impulse response is cut into P partitions of blockSize samples, each transformed once with
+ * an FFT of size 2*blockSize. Each input block is transformed once and pushed into a frequency
+ * domain delay line holding the spectra of the last P blocks; the output block is the inverse
+ * FFT of the sum of delayed input spectra times partition spectra. The latency is therefore one
+ * block whatever the length of the impulse response, and the cost per block is two FFTs plus
+ * P complex multiply-adds of blockSize+1 bins. Nothing is allocated after construction.
+ *
+ * Example of use:
+ * PartitionedConvolver convolver = new PartitionedConvolver(impulseResponse, 256);
+ * convolver.process(in, out); // 256 samples in, 256 samples out
+ */
+public class PartitionedConvolver {
+    private final int blockSize;
+    private final int partitions;
+    private final RealFFTPlan plan;
+    private final double[][] filterRe, filterIm; // spectra of the impulse response partitions
+    private final double[][] delayRe, delayIm;   // frequency domain delay line of input spectra
+    private final double[] sumRe, sumIm;
+    private final double[] input;               // last two input blocks
+    private final double[] time;
+    private int head;                            // delay line slot of the most recent block
+
+    /** Creates a convolver for the given impulse response.
+     * @param impulseResponse the impulse response, copied
+     * @param blockSize the number of samples given to each call of process(), also the latency */
+    public PartitionedConvolver(double[] impulseResponse, int blockSize) {
+        if (impulseResponse.length == 0 || blockSize < 1) {
+            throw new IllegalArgumentException("Empty impulse response or block");
+        }
+        this.blockSize = blockSize;
+        this.partitions = (impulseResponse.length + blockSize - 1) / blockSize;
+        this.plan = RealFFTPlan.create(2 * blockSize);
+
+        int bins = plan.spectrumSize();
+        filterRe = new double[partitions][bins];
+        filterIm = new double[partitions][bins];
+        delayRe = new double[partitions][bins];
+        delayIm = new double[partitions][bins];
+        sumRe = new double[bins];
+        sumIm = new double[bins];
+        input = new double[2 * blockSize];
+        time = new double[2 * blockSize];
+
+        for (int p = 0; p < partitions; p++) {
+            Arrays.fill(time, 0.0);
+            int from = p * blockSize;
+            System.arraycopy(impulseResponse, from, time, 0, Math.min(blockSize, impulseResponse.length - from));
+            plan.forward(time, filterRe[p], filterIm[p]);
+        }
+    }
+
+    /** @return the number of samples processed by each call, which is also the latency */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /** @return the number of impulse response partitions */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /** Forgets the previous blocks, as if the input had been silent until now. */
+    public void reset() {
+        Arrays.fill(input, 0.0);
+        for (int p = 0; p < partitions; p++) {
+            Arrays.fill(delayRe[p], 0.0);
+            Arrays.fill(delayIm[p], 0.0);
+        }
+    }
+
+    /** Convolves in[0..blockSize-1] into out[0..blockSize-1]. in and out may be the same array. */
+    public void process(double[] in, double[] out) {
+        // the previous block and the new one make a 2*blockSize overlap-save window
+        System.arraycopy(input, blockSize, input, 0, blockSize);
+        System.arraycopy(in, 0, input, blockSize, blockSize);
+
+        head = head == 0 ? partitions - 1 : head - 1;
+        plan.forward(input, delayRe[head], delayIm[head]);
+
+        // sum of delayed input spectra times partition spectra
+        Arrays.fill(sumRe, 0.0);
+        Arrays.fill(sumIm, 0.0);
+        for (int p = 0, slot = head; p < partitions; p++, slot = slot + 1 == partitions ? 0 : slot + 1) {
+            double[] xr = delayRe[slot], xi = delayIm[slot];
+            double[] hr = filterRe[p], hi = filterIm[p];
+            for (int k = 0; k < sumRe.length; k++) {
+                sumRe[k] += xr[k] * hr[k] - xi[k] * hi[k];
+                sumIm[k] += xr[k] * hi[k] + xi[k] * hr[k];
+            }
+        }
+
+        // the first half is corrupted by the circular wrap-around
+        plan.inverse(sumRe, sumIm, time);
+        System.arraycopy(time, blockSize, out, 0, blockSize);
+    }
+}
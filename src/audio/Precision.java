@@ -0,0 +1,8 @@
+package audio;
+
+/** The sample type of a processing pipeline.
+ *
+ * DOUBLE is the default and the reference. FLOAT halves the size of every sample buffer, and so the
+ * memory traffic of each block, at the cost of a ~1e-7 relative rounding error per operation: far
+ * below the noise of 16 and 24 bit sources, but not meant for precision sensitive analysis. */
+public enum Precision { DOUBLE, FLOAT }
@@ -0,0 +1,211 @@
+package audio;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Timings and glitch counters of a real-time audio loop: one {@link LatencyHistogram} per stage of
+ * a block, the number of deadline misses (blocks processed in more time than they last) and of
+ * device overruns and underruns, and in strict real-time mode the blocks that allocated memory.
+ *
+ * Recording never locks nor allocates. register() publishes the counters and histograms as JMX
+ * MBeans (domain "audio"), to be read with jconsole or any JMX client while the audio runs.
+ *
+ * Example of use:
+ * ProcessingStats stats = new ProcessingStats(1024 / 44100.0);
+ * stats.register("session1");
+ * ...
+ * stats.record(ProcessingStats.Stage.PROCESS, elapsed);
+ */
+public class ProcessingStats implements ProcessingStatsMBean {
+
+    /** The stages of one block. */
+    public enum Stage {
+        /** Waiting for the input line and decoding its samples. */
+        CAPTURE,
+        /** Running the effects: the part that must fit in the block duration. */
+        PROCESS,
+        /** Encoding the samples and waiting for the output line. */
+        PLAYBACK,
+        /** Publishing the block to the monitor buffer. */
+        MONITOR
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private volatile long blockNanos;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLong deadlineMisses = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong allocatingBlocks = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private ObjectName[] registeredNames; // guarded by this
+
+    /** @param blockDuration the duration of one block in seconds, frame size over sample rate */
+    public ProcessingStats(double blockDuration) {
+        this.blockNanos = toNanos(blockDuration);
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /** Records the duration of one stage of a block. A PROCESS stage longer than the block counts
+     * as a deadline miss. */
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+        if (stage == Stage.PROCESS && nanos > blockNanos) {
+            deadlineMisses.incrementAndGet();
+        }
+    }
+
+    /** Counts an input overrun: the device had to drop captured samples. */
+    public void countOverrun() {
+        overruns.incrementAndGet();
+    }
+
+    /** Counts an output underrun: the device ran out of samples to play. */
+    public void countUnderrun() {
+        underruns.incrementAndGet();
+    }
+
+    /** Counts a block during which the audio thread allocated the given number of bytes. */
+    public void countAllocation(long bytes) {
+        allocatingBlocks.incrementAndGet();
+        allocatedBytes.addAndGet(bytes);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /** @return the number of processed blocks */
+    @Override
+    public long getBlocks() {
+        return getHistogram(Stage.PROCESS).getCount();
+    }
+
+    @Override
+    public long getDeadlineMisses() {
+        return deadlineMisses.get();
+    }
+
+    @Override
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    /** @return the number of blocks that allocated, only counted in strict real-time mode */
+    @Override
+    public long getAllocatingBlocks() {
+        return allocatingBlocks.get();
+    }
+
+    /** @return the bytes allocated by these blocks */
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /** Sets the duration of the blocks recorded from now on, when the block size changes.
+     * @param blockDuration in seconds */
+    public void setBlockDuration(double blockDuration) {
+        blockNanos = toNanos(blockDuration);
+    }
+
+    private static long toNanos(double blockDuration) {
+        if (!(blockDuration > 0)) throw new IllegalArgumentException("The block duration must be positive");
+        return Math.round(blockDuration * 1e9);
+    }
+
+    public long getBlockNanos() {
+        return blockNanos;
+    }
+
+    @Override
+    public double getBlockDurationMicros() {
+        return blockNanos * 1e-3;
+    }
+
+    /** Clears the histograms and counters. */
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        deadlineMisses.set(0);
+        overruns.set(0);
+        underruns.set(0);
+        allocatingBlocks.set(0);
+        allocatedBytes.set(0);
+    }
+
+    /** Registers these stats in the platform MBean server as audio:type=ProcessingStats,name=...
+     * and one audio:type=LatencyHistogram,name=...,stage=... per stage, replacing any previous
+     * registration of this object.
+     * @throws JMException if the name is not valid or already used by other MBeans */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String quoted = ObjectName.quote(name);
+        ObjectName[] names = new ObjectName[STAGES.length + 1];
+        names[0] = new ObjectName("audio:type=ProcessingStats,name=" + quoted);
+        for (Stage stage : STAGES) {
+            names[stage.ordinal() + 1] = new ObjectName("audio:type=LatencyHistogram,name=" + quoted
+                    + ",stage=" + stage.name().toLowerCase());
+        }
+
+        int registered = 0; // the names before it were registered by this call, the others may not be ours
+        try {
+            server.registerMBean(this, names[0]);
+            registered++;
+            for (Stage stage : STAGES) {
+                server.registerMBean(getHistogram(stage), names[stage.ordinal() + 1]);
+                registered++;
+            }
+        } catch (JMException e) {
+            unregister(server, names, registered);
+            throw e;
+        }
+        registeredNames = names;
+    }
+
+    /** Removes the MBeans registered by register(), if any. */
+    public synchronized void unregister() {
+        if (registeredNames != null) {
+            unregister(ManagementFactory.getPlatformMBeanServer(), registeredNames, registeredNames.length);
+            registeredNames = null;
+        }
+    }
+
+    // unregisters the first count names
+    private static void unregister(MBeanServer server, ObjectName[] names, int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                if (server.isRegistered(names[i])) server.unregisterMBean(names[i]);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("%d blocks of %.0fus, %d deadline misses, %d overruns, %d underruns",
+                getBlocks(), getBlockDurationMicros(), getDeadlineMisses(), getOverruns(), getUnderruns()));
+        if (getAllocatingBlocks() > 0) {
+            sb.append(String.format(", %d allocating blocks (%d bytes)", getAllocatingBlocks(), getAllocatedBytes()));
+        }
+        for (Stage stage : STAGES) {
+            sb.append(String.format("%n%-8s %s", stage, getHistogram(stage)));
+        }
+        return sb.toString();
+    }
+}
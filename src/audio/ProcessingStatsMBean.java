@@ -0,0 +1,13 @@
+package audio;
+
+/** JMX view of the {@link ProcessingStats} of an audio thread. */
+public interface ProcessingStatsMBean {
+    long getBlocks();
+    long getDeadlineMisses();
+    long getOverruns();
+    long getUnderruns();
+    long getAllocatingBlocks();
+    long getAllocatedBytes();
+    double getBlockDurationMicros();
+    void reset();
+}
@@ -0,0 +1,302 @@
+package audio;
+
+import java.util.Arrays;
+
+/** Streaming sample rate converter based on a polyphase windowed-sinc filter.
+ *
+ * Output sample k is the input signal interpolated at time k * inputRate / outputRate with a
+ * Kaiser windowed sinc, low-passed below the lower of the two Nyquist frequencies (flat up to
+ * about 88% of it, attenuated by about 90 dB above it). The filter
+ * is tabulated once for a set of fractional delays (the phases):
+ * - when outputRate / inputRate reduces to L / M with L <= MAX_RATIONAL_PHASES (e.g. 44100 to
+ *   16000 is 160 / 441), the table holds exactly the L phases used and no interpolation is needed;
+ * - otherwise (arbitrary ratios) the table holds ARBITRARY_PHASES phases and the coefficients are
+ *   linearly interpolated between the two nearest ones.
+ *
+ * Input blocks of any size are pushed with process(); outputs are produced as soon as the input
+ * they depend on has arrived, so the output lags the input by half the filter length. flush()
+ * pushes the missing input as silence at the end of a stream, after which exactly
+ * ceil(inputSamples * outputRate / inputRate) samples have been produced. One instance per channel.
+ *
+ * Example of use:
+ * Resampler resampler = new Resampler(44100, 16000);
+ * double[] out = new double[resampler.maxOutput(1024)];
+ * int produced = resampler.process(block, 0, 1024, out, 0);
+ */
+public class Resampler {
+    static final int MAX_RATIONAL_PHASES = 4096;
+    static final int ARBITRARY_PHASES = 512;
+    private static final int FRACTION_BITS = 32;           // fixed point position for arbitrary ratios
+    private static final int ZERO_CROSSINGS = 48;          // on each side, at the lower rate
+    private static final double CUTOFF = 0.94;             // middle of the transition band, as a fraction of the lower Nyquist
+    private static final double KAISER_BETA = 8.6;         // about 90 dB of stop band attenuation
+
+    private final double inputRate, outputRate;
+    private final int half;       // taps on each side of the interpolated position
+    private final int taps;
+    private final double[] table; // (phases + 1) rows of taps coefficients
+    private final boolean rational;
+    private final int phases;
+    private final long denominator; // L for rational ratios, 2^32 otherwise
+    private final long stepWhole, stepFraction; // input samples per output sample, in 1/denominator units
+
+    private double[] buffer;      // input samples from bufferStart on
+    private long bufferStart;     // input index of buffer[0], negative for the initial silence
+    private int bufferLength;
+    private long index;           // integer part of the position of the next output
+    private long fraction;        // fractional part, in 1/denominator units
+    private long consumed;        // input samples pushed, flush() excluded
+
+    public Resampler(double inputRate, double outputRate) {
+        if (!(inputRate > 0) || !(outputRate > 0)) {
+            throw new IllegalArgumentException("Sample rates must be positive");
+        }
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+
+        // rational ratio L / M for integer rates with a small enough L
+        long l = 0, m = 0;
+        if (inputRate == Math.rint(inputRate) && outputRate == Math.rint(outputRate)) {
+            long gcd = gcd((long) inputRate, (long) outputRate);
+            l = (long) outputRate / gcd;
+            m = (long) inputRate / gcd;
+        }
+        rational = l > 0 && l <= MAX_RATIONAL_PHASES;
+        if (rational) {
+            phases = (int) l;
+            denominator = l;
+            stepWhole = m / l;
+            stepFraction = m % l;
+        } else {
+            phases = ARBITRARY_PHASES;
+            denominator = 1L << FRACTION_BITS;
+            double step = inputRate / outputRate;
+            stepWhole = (long) step;
+            stepFraction = Math.round((step - stepWhole) * denominator);
+        }
+
+        // widen the filter when downsampling, to keep the same transition band at the output rate
+        double scale = Math.min(1, outputRate / inputRate);
+        half = (int) Math.ceil(ZERO_CROSSINGS / scale);
+        taps = 2 * half;
+        table = createTable(phases, half, 0.5 * CUTOFF * scale);
+
+        // the filter looks half samples back, the stream is preceded by silence
+        buffer = new double[4 * taps];
+        bufferStart = -half;
+        bufferLength = half;
+    }
+
+    // row p holds the taps for the position p / phases past a sample, plus a last row for p = phases
+    private static double[] createTable(int phases, int half, double cutoff) {
+        int taps = 2 * half;
+        double[] table = new double[(phases + 1) * taps];
+        double i0Beta = besselI0(KAISER_BETA);
+        for (int p = 0; p <= phases; p++) {
+            double offset = (double) p / phases;
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                double x = j - (half - 1) - offset; // distance from the interpolated position
+                double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+                double r = x / half;
+                double window = Math.abs(r) < 1 ? besselI0(KAISER_BETA * Math.sqrt(1 - r * r)) / i0Beta : 0;
+                table[p * taps + j] = sinc * window;
+                sum += sinc * window;
+            }
+            // unity gain at DC for every phase
+            for (int j = 0; j < taps; j++) table[p * taps + j] /= sum;
+        }
+        return table;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-17) break;
+        }
+        return sum;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public double getInputRate() {
+        return inputRate;
+    }
+
+    public double getOutputRate() {
+        return outputRate;
+    }
+
+    /** @return true if the ratio is handled exactly, without interpolating between phases */
+    public boolean isRational() {
+        return rational;
+    }
+
+    /** @return the delay of the output, in input samples */
+    public int getLatency() {
+        return half;
+    }
+
+    /** @return an upper bound of the number of samples produced by pushing inputLength samples */
+    public int maxOutput(int inputLength) {
+        return (int) Math.ceil((inputLength + taps) * outputRate / inputRate) + 1;
+    }
+
+    /** Forgets the input pushed so far. */
+    public void reset() {
+        // the filter looks half samples back, the stream is preceded by silence
+        Arrays.fill(buffer, 0, half, 0.0);
+        bufferStart = -half;
+        bufferLength = half;
+        index = 0;
+        fraction = 0;
+        consumed = 0;
+    }
+
+    /** Pushes in[inOffset..inOffset+inLength-1] and writes the outputs they complete to out[outOffset..].
+     * @return the number of output samples written, at most maxOutput(inLength) */
+    public int process(double[] in, int inOffset, int inLength, double[] out, int outOffset) {
+        append(in, inOffset, inLength);
+        consumed += inLength;
+        return produce(out, outOffset, Long.MAX_VALUE);
+    }
+
+    /** Ends the stream: pushes silence to produce the outputs still depending on future input,
+     * then reset() must be called before pushing another stream.
+     * @return the number of output samples written to out[outOffset..], at most maxOutput(0) */
+    public int flush(double[] out, int outOffset) {
+        makeRoom(half);
+        Arrays.fill(buffer, bufferLength, bufferLength + half, 0.0);
+        bufferLength += half;
+        // outputs exist for the positions before the end of the input
+        return produce(out, outOffset, consumed);
+    }
+
+    private void append(double[] in, int offset, int length) {
+        makeRoom(length);
+        System.arraycopy(in, offset, buffer, bufferLength, length);
+        bufferLength += length;
+    }
+
+    // drops the samples no future output depends on and grows the buffer if length samples do not fit
+    private void makeRoom(int length) {
+        long first = index - half + 1;
+        int drop = (int) Math.max(0, Math.min(bufferLength, first - bufferStart));
+        if (drop > 0) {
+            System.arraycopy(buffer, drop, buffer, 0, bufferLength - drop);
+            bufferStart += drop;
+            bufferLength -= drop;
+        }
+        if (bufferLength + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, bufferLength + length));
+        }
+    }
+
+    // computes the outputs at the positions before endIndex whose input is available
+    private int produce(double[] out, int outOffset, long endIndex) {
+        long end = bufferStart + bufferLength; // first input index not available yet
+        int count = 0;
+        while (index < endIndex && index + half < end) {
+            int base = (int) (index - half + 1 - bufferStart);
+            double y;
+            if (rational) {
+                y = dot(table, (int) fraction * taps, buffer, base);
+            } else {
+                long scaled = fraction * phases;
+                int p = (int) (scaled >>> FRACTION_BITS);
+                double t = (double) (scaled & ((1L << FRACTION_BITS) - 1)) / (1L << FRACTION_BITS);
+                double y0 = dot(table, p * taps, buffer, base);
+                double y1 = dot(table, (p + 1) * taps, buffer, base);
+                y = y0 + t * (y1 - y0);
+            }
+            out[outOffset + count++] = y;
+
+            fraction += stepFraction;
+            index += stepWhole;
+            if (fraction >= denominator) {
+                fraction -= denominator;
+                index++;
+            }
+        }
+        return count;
+    }
+
+    private double dot(double[] coefficients, int c, double[] x, int base) {
+        double sum = 0;
+        for (int j = 0; j < taps; j++) {
+            sum += coefficients[c + j] * x[base + j];
+        }
+        return sum;
+    }
+
+    /** Test client: converts tones between common rates and checks the amplitude of the passband
+     * tone, the rejection of a tone above the output Nyquist frequency, the number of outputs and
+     * the independence from the block size, then reports the speed. */
+    public static void main(String[] args) {
+        double[][] conversions = {{44100, 16000}, {16000, 44100}, {48000, 44100}, {44100, 48000}, {44100, 44100 * 1.0001}};
+        int length = 44100;
+        for (double[] rates : conversions) {
+            double inputRate = rates[0], outputRate = rates[1];
+            double[] tone = new double[length], alias = new double[length];
+            for (int i = 0; i < length; i++) {
+                tone[i] = Math.sin(2 * Math.PI * 1000 * i / inputRate);
+                // above the output Nyquist frequency when downsampling
+                alias[i] = Math.sin(2 * Math.PI * 0.52 * outputRate * i / inputRate);
+            }
+
+            double[] toneOut = resample(tone, inputRate, outputRate, 1024);
+            double[] aliasOut = resample(alias, inputRate, outputRate, 1024);
+            double[] toneOdd = resample(tone, inputRate, outputRate, 333);
+            long expected = (long) Math.ceil(length * outputRate / inputRate);
+
+            // amplitude and error of the tone away from the edges
+            double peak = 0, error = 0, leak = 0;
+            for (int k = toneOut.length / 10; k < toneOut.length * 9 / 10; k++) {
+                double exact = Math.sin(2 * Math.PI * 1000 * k / outputRate);
+                peak = Math.max(peak, Math.abs(toneOut[k]));
+                error = Math.max(error, Math.abs(toneOut[k] - exact));
+                if (outputRate < inputRate) leak = Math.max(leak, Math.abs(aliasOut[k]));
+            }
+            double difference = 0;
+            for (int k = 0; k < toneOut.length; k++) difference = Math.max(difference, Math.abs(toneOut[k] - toneOdd[k]));
+
+            System.out.printf("%.1f -> %.1f Hz (%s): %d/%d samples, 1 kHz peak %.6f error %.1f dB, alias %s dB, block size difference %.1e%n",
+                    inputRate, outputRate, new Resampler(inputRate, outputRate).isRational() ? "rational" : "arbitrary",
+                    toneOut.length, expected, peak, 20 * Math.log10(error),
+                    outputRate < inputRate ? String.format("%.1f", 20 * Math.log10(leak)) : "-", difference);
+        }
+
+        Resampler resampler = new Resampler(44100, 16000);
+        double[] block = new double[1024];
+        double[] out = new double[resampler.maxOutput(block.length)];
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < block.length; i++) block[i] = random.nextGaussian();
+        for (int pass = 0; pass < 3; pass++) {
+            int blocks = 20000;
+            long start = System.nanoTime();
+            for (int b = 0; b < blocks; b++) resampler.process(block, 0, block.length, out, 0);
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            System.out.printf("44100 -> 16000 Hz: %.0f x real time per channel%n", blocks * block.length / 44100.0 / seconds);
+        }
+    }
+
+    private static double[] resample(double[] input, double inputRate, double outputRate, int blockSize) {
+        Resampler resampler = new Resampler(inputRate, outputRate);
+        double[] output = new double[resampler.maxOutput(input.length) + resampler.maxOutput(0)];
+        int produced = 0;
+        for (int i = 0; i < input.length; i += blockSize) {
+            produced += resampler.process(input, i, Math.min(blockSize, input.length - i), output, produced);
+        }
+        produced += resampler.flush(output, produced);
+        return Arrays.copyOf(output, produced);
+    }
+}
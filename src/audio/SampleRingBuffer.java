@@ -0,0 +1,88 @@
+package audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Lock-free single-producer/single-consumer ring buffer of samples.
+ *
+ * Used to hand audio from the audio thread (the producer, e.g. {@link AudioProcessor}) to the
+ * UI thread (the consumer) without either side ever blocking: the producer drops the samples
+ * that do not fit instead of waiting, and the consumer only reads what is available. Each side
+ * publishes its position with an ordered store after copying, so samples are always visible to
+ * the other side before the position that covers them. Nothing is allocated after construction.
+ *
+ * Exactly one thread may call the producer methods and exactly one thread the consumer methods.
+ */
+public class SampleRingBuffer {
+    private final double[] buffer;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong(); // total samples written
+    private final AtomicLong readPosition = new AtomicLong();  // total samples read
+    private long cachedReadPosition;  // producer side copy of readPosition
+    private long cachedWritePosition; // consumer side copy of writePosition
+    private volatile long droppedSamples;
+
+    /** @param capacity the maximum number of buffered samples, rounded up to a power of 2 */
+    public SampleRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2));
+        if (size < capacity) size *= 2;
+        buffer = new double[size];
+        mask = size - 1;
+    }
+
+    /** @return the maximum number of buffered samples */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /** Producer side: appends src[offset..offset+length-1], or as many of these samples as fit.
+     * @return the number of samples written, the others are dropped and counted */
+    public int write(double[] src, int offset, int length) {
+        long write = writePosition.get();
+        int free = buffer.length - (int) (write - cachedReadPosition);
+        if (free < length) {
+            cachedReadPosition = readPosition.get();
+            free = buffer.length - (int) (write - cachedReadPosition);
+        }
+
+        int count = Math.min(length, free);
+        int start = (int) write & mask;
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(src, offset, buffer, start, first);
+        System.arraycopy(src, offset + first, buffer, 0, count - first);
+        writePosition.lazySet(write + count);
+
+        if (count < length) {
+            droppedSamples += length - count; // single writer
+        }
+        return count;
+    }
+
+    /** Consumer side: removes up to length samples into dst[offset..].
+     * @return the number of samples read, 0 if the buffer is empty */
+    public int read(double[] dst, int offset, int length) {
+        long read = readPosition.get();
+        int available = (int) (cachedWritePosition - read);
+        if (available < length) {
+            cachedWritePosition = writePosition.get();
+            available = (int) (cachedWritePosition - read);
+        }
+
+        int count = Math.min(length, available);
+        int start = (int) read & mask;
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /** @return the number of samples that can be read right now (may be stale when called by the producer) */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /** @return the number of samples the producer had to drop because the buffer was full */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
@@ -0,0 +1,115 @@
+package audio;
+
+import math.RealFFTPlan;
+import math.WindowFunction;
+
+import java.util.Arrays;
+
+/** Short-time Fourier transform of a continuous sample stream.
+ *
+ * Blocks of any size are pushed as they arrive (typically from the audio thread) into a ring
+ * buffer holding the last frameSize samples. Every hopSize samples, the ring buffer is windowed
+ * with a cached window, transformed with a real FFT and its magnitudes are handed to a
+ * {@link FrameListener}, so consecutive frames overlap by frameSize - hopSize samples and no
+ * sample is ever skipped. All buffers are allocated in the constructor: the magnitude array passed
+ * to the listener is reused for every frame and must be copied if kept.
+ *
+ * Magnitudes are scaled by 2 / sum(window), so a full scale sine wave reads close to 1.
+ *
+ * Example of use:
+ * StreamingSTFT stft = new StreamingSTFT(1024, 256, WindowFunction.HANN);
+ * stft.push(signal.getSampleBuffer(), 0, signal.getFrameSize(), magnitudes -> draw(magnitudes));
+ */
+public class StreamingSTFT {
+
+    /** Receives the magnitudes of each new frame, bins 0..frameSize/2. */
+    public interface FrameListener {
+        void onFrame(double[] magnitudes);
+    }
+
+    private final int frameSize;
+    private final int hopSize;
+    private final double[] window;
+    private final double[] ring;     // last frameSize samples, oldest at ringPos
+    private final double[] frame;    // windowed samples in chronological order
+    private final double[] re, im;
+    private final double[] magnitudes;
+    private final RealFFTPlan plan;
+    private final double scale;
+    private int ringPos;
+    private int untilNextFrame;      // samples to receive before the next frame is due
+
+    /** @param frameSize the FFT size, must be even
+     * @param hopSize the number of samples between two frames, between 1 and frameSize */
+    public StreamingSTFT(int frameSize, int hopSize, WindowFunction windowFunction) {
+        if (hopSize < 1 || hopSize > frameSize) {
+            throw new IllegalArgumentException("hopSize must be between 1 and frameSize");
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.plan = RealFFTPlan.create(frameSize);
+        this.window = windowFunction.create(frameSize);
+        this.ring = new double[frameSize];
+        this.frame = new double[frameSize];
+        this.re = new double[plan.spectrumSize()];
+        this.im = new double[plan.spectrumSize()];
+        this.magnitudes = new double[plan.spectrumSize()];
+
+        double sum = 0;
+        for (double w : window) sum += w;
+        this.scale = 2 / sum;
+        this.untilNextFrame = frameSize;
+    }
+
+    /** @return the number of magnitude bins of each frame, frameSize/2 + 1 */
+    public int getBins() {
+        return magnitudes.length;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    /** Appends samples[offset..offset+length-1] to the stream, calling the listener once for
+     * every frame completed by these samples. */
+    public void push(double[] samples, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        while (offset < end) {
+            // copy up to the next frame boundary or the end of the ring buffer
+            int count = Math.min(end - offset, Math.min(untilNextFrame, frameSize - ringPos));
+            System.arraycopy(samples, offset, ring, ringPos, count);
+            offset += count;
+            ringPos = (ringPos + count) % frameSize;
+            untilNextFrame -= count;
+
+            if (untilNextFrame == 0) {
+                untilNextFrame = hopSize;
+                computeFrame();
+                listener.onFrame(magnitudes);
+            }
+        }
+    }
+
+    /** Forgets the buffered samples. */
+    public void reset() {
+        ringPos = 0;
+        untilNextFrame = frameSize;
+        Arrays.fill(ring, 0.0);
+    }
+
+    private void computeFrame() {
+        // unroll the ring buffer, oldest sample first, applying the window
+        int first = frameSize - ringPos;
+        for (int i = 0; i < first; i++) frame[i] = ring[ringPos + i] * window[i];
+        for (int i = first; i < frameSize; i++) frame[i] = ring[i - first] * window[i];
+
+        plan.forward(frame, re, im);
+        for (int k = 0; k < magnitudes.length; k++) {
+            magnitudes[k] = scale * Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+        }
+    }
+}
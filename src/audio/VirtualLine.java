@@ -0,0 +1,237 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/** Base of the lines that simulate an audio device in memory: {@link VirtualTargetLine},
+ * {@link VirtualSourceLine} and the two ends of a {@link VirtualLoopback}.
+ *
+ * A paced line follows a device clock running at the sample rate of its format while the line is
+ * started: reads and writes wait for the clock like those of a sound card, and a reader or writer
+ * that falls behind causes overruns and underruns. A free running line has no clock and transfers
+ * every block at once, so that a pipeline runs as fast as it can, with deterministic results.
+ *
+ * As with the lines of a mixer, a stopped line no longer waits: read() and write() return what
+ * they could transfer at once, which releases an audio thread blocked in them. Lines have no
+ * controls, and reading, writing and the clock never allocate. */
+public abstract class VirtualLine implements DataLine {
+    static final double DEFAULT_BUFFER_SECONDS = 0.5;
+    private static final long MAX_WAIT_NANOS = 1_000_000; // the line state is checked every ms while waiting
+
+    private final AudioFormat format;
+    private final boolean paced;
+    final int frameBytes;
+    private volatile int bufferFrames;
+    private volatile boolean open;
+    private volatile boolean running;
+    private long clockStart;  // System.nanoTime() of the last start
+    private long clockFrames; // device frames elapsed before the last start
+    private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+
+    VirtualLine(AudioFormat format, int bufferFrames, boolean paced) {
+        if (format.getFrameSize() <= 0 || !(format.getSampleRate() > 0)) {
+            throw new IllegalArgumentException("The format needs a frame size and a sample rate: " + format);
+        }
+        if (bufferFrames <= 0) throw new IllegalArgumentException("The buffer must hold at least one frame");
+        this.format = format;
+        this.paced = paced;
+        this.frameBytes = format.getFrameSize();
+        this.bufferFrames = bufferFrames;
+    }
+
+    static int defaultBufferFrames(AudioFormat format) {
+        return (int) Math.ceil(format.getSampleRate() * DEFAULT_BUFFER_SECONDS);
+    }
+
+    /** @return true if the line follows a real-time device clock, false if it runs free */
+    public boolean isPaced() {
+        return paced;
+    }
+
+    /** @return the number of frames the device clock went through while the line was started,
+     * since it was opened */
+    synchronized long deviceFrames() {
+        long frames = clockFrames;
+        if (running) {
+            frames += (long) ((System.nanoTime() - clockStart) * (double) format.getSampleRate() * 1e-9);
+        }
+        return frames;
+    }
+
+    /** Waits until the device clock reaches the given frame.
+     * @return false if the line was stopped first */
+    boolean awaitDeviceFrame(long frame) {
+        while (running) {
+            long missing = frame - deviceFrames();
+            if (missing <= 0) return true;
+            LockSupport.parkNanos(Math.min(MAX_WAIT_NANOS, (long) (missing * 1e9 / format.getSampleRate())));
+        }
+        return false;
+    }
+
+    /** Waits a little for another thread, e.g. the other end of a loopback.
+     * @return false if the line is stopped */
+    boolean pause() {
+        if (!running) return false;
+        LockSupport.parkNanos(MAX_WAIT_NANOS / 10);
+        return running;
+    }
+
+    /** @return the number of whole frames in len bytes */
+    int frames(int len) {
+        if (len < 0 || len % frameBytes != 0) {
+            throw new IllegalArgumentException("The length must be a whole number of frames of " + frameBytes + " bytes");
+        }
+        return len / frameBytes;
+    }
+
+    int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    /** Called when the line opens, to reset the positions and acquire resources. */
+    abstract void opened() throws LineUnavailableException;
+
+    /** Called when the line closes, to release resources. */
+    abstract void closed();
+
+    @Override
+    public void open() throws LineUnavailableException {
+        open(format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /** Opens the line with the given buffer size.
+     * @param format must match the format of the line, which is fixed
+     * @param bufferSize in bytes, AudioSystem.NOT_SPECIFIED to keep the current size */
+    public void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+        if (!format.matches(this.format)) {
+            throw new IllegalArgumentException("The line only supports " + this.format);
+        }
+        synchronized (this) {
+            if (open) return;
+            if (bufferSize != AudioSystem.NOT_SPECIFIED) {
+                bufferFrames = Math.max(1, bufferSize / frameBytes);
+            }
+            clockFrames = 0;
+            opened();
+            open = true;
+        }
+        notify(LineEvent.Type.OPEN);
+    }
+
+    public void open(AudioFormat format) throws LineUnavailableException {
+        open(format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    @Override
+    public void close() {
+        stop();
+        synchronized (this) {
+            if (!open) return;
+            open = false;
+            closed();
+        }
+        notify(LineEvent.Type.CLOSE);
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            if (!open || running) return;
+            clockStart = System.nanoTime();
+            running = true;
+        }
+        notify(LineEvent.Type.START);
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (!running) return;
+            clockFrames = deviceFrames();
+            running = false;
+        }
+        notify(LineEvent.Type.STOP);
+    }
+
+    private void notify(LineEvent.Type type) {
+        if (listeners.isEmpty()) return;
+        LineEvent event = new LineEvent(this, type, getLongFramePosition());
+        for (LineListener listener : listeners) {
+            listener.update(event);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferFrames * frameBytes;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1e6 / format.getSampleRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        listeners.remove(listener);
+    }
+}
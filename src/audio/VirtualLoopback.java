@@ -0,0 +1,183 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+
+/** A virtual device whose capture line returns what is played to its playback line, through an
+ * in-memory buffer, e.g. to chain two processors or to measure a pipeline end to end.
+ *
+ * With a paced loopback, the playback line follows the device clock, but the capture line gets
+ * the frames as soon as they are written, not when they are played: they may be read up to a
+ * playback buffer ahead of the simulated device, so a latency measured end to end through the
+ * loopback misses the output buffering. When the loopback buffer is full the oldest frames are
+ * lost, as with a capture line read too late. With a free running loopback, the lines behave like
+ * a pipe: the writer waits for room and the reader for frames, and nothing is ever lost.
+ *
+ * Example of use:
+ * VirtualLoopback loopback = new VirtualLoopback(format, 4096, true);
+ * AudioProcessor first = new AudioProcessor(input, loopback.getSourceLine(), 1024);
+ * AudioProcessor second = new AudioProcessor(loopback.getTargetLine(), output, 1024);
+ */
+public class VirtualLoopback {
+    private final ByteRing ring;
+    private final VirtualSourceLine sourceLine;
+    private final VirtualTargetLine targetLine;
+
+    /** @param bufferFrames the number of frames the loopback buffer holds */
+    public VirtualLoopback(AudioFormat format, int bufferFrames, boolean paced) {
+        ring = new ByteRing(Math.multiplyExact(bufferFrames, format.getFrameSize()), format.getFrameSize(), paced);
+        sourceLine = new VirtualSourceLine(format, bufferFrames, paced, ring, 0);
+        // the reader is paced by the writer already
+        targetLine = new VirtualTargetLine(format, bufferFrames, false, ring);
+    }
+
+    /** @return the line to play to */
+    public SourceDataLine getSourceLine() {
+        return sourceLine;
+    }
+
+    /** @return the line capturing what is played */
+    public TargetDataLine getTargetLine() {
+        return targetLine;
+    }
+
+    /** @return the number of frames lost because the capture line was not read in time */
+    public long getDroppedFrames() {
+        return ring.getDroppedBytes() / ring.frameBytes;
+    }
+
+    /** Test client: runs capture sessions on virtual lines, free running to check the samples and
+     * measure throughput, then paced through a loopback, and with an effect too slow for real time. */
+    public static void main(String[] args) throws Exception {
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        int frameSize = 1024;
+
+        // free running: the output must be the input, as fast as possible
+        int frames = 10 * 44100;
+        VirtualTargetLine input = VirtualTargetLine.sine(format, 1000, 0.5, false);
+        VirtualSourceLine output = VirtualSourceLine.capturing(format, frames, false);
+        try (CaptureSession session = new CaptureSession(input, output, frameSize)) {
+            long start = System.nanoTime();
+            session.start();
+            while (output.getCapturedFrames() < frames) {
+                Thread.sleep(1);
+            }
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            session.stop();
+
+            double[] left = output.getCaptured(0);
+            double error = 0;
+            for (int i = 0; i < frames; i++) {
+                error = Math.max(error, Math.abs(left[i] - 0.5 * Math.sin(2 * Math.PI * 1000 * i / 44100.0)));
+            }
+            System.out.printf("Free running: %d frames in %.3f s (%.0fx real time), max error %.1e%n", frames,
+                    seconds, frames / 44100.0 / seconds, error);
+            System.out.println(session.getStats());
+        }
+
+        // paced: a generator, then a processor playing to a loopback, read by a second processor.
+        // One block of pre-roll on each output absorbs the scheduling jitter
+        VirtualLoopback loopback = new VirtualLoopback(format, 4 * frameSize, true);
+        try (CaptureSession first = new CaptureSession(VirtualTargetLine.sine(format, 440, 0.5, true),
+                     loopback.getSourceLine(), frameSize);
+             CaptureSession second = new CaptureSession(loopback.getTargetLine(),
+                     VirtualSourceLine.discarding(format, true), frameSize)) {
+            first.setEffect(() -> new GainEffect(-6));
+            first.setLatency(frameSize, 1);
+            second.setLatency(frameSize, 1);
+            second.start();
+            first.start();
+            Thread.sleep(2000);
+            first.stop();
+            second.stop();
+            System.out.printf("%nPaced loopback: %d frames lost%nFirst: %s%nSecond: %s%n",
+                    loopback.getDroppedFrames(), first.getStats(), second.getStats());
+        }
+
+        // paced with an effect taking 1.5 block durations: deadline misses, then overruns once the
+        // input buffer of 4 blocks is full
+        long blockNanos = Math.round(frameSize / 44100.0 * 1e9);
+        VirtualTargetLine slowInput = VirtualTargetLine.sine(format, 440, 0.5, true);
+        slowInput.open(format, 4 * frameSize * format.getFrameSize());
+        try (CaptureSession session = new CaptureSession(slowInput, VirtualSourceLine.discarding(format, true), frameSize)) {
+            session.setEffect(() -> (in, out, n) -> {
+                System.arraycopy(in, 0, out, 0, n);
+                java.util.concurrent.locks.LockSupport.parkNanos(blockNanos * 3 / 4); // two channels
+            });
+            session.start();
+            Thread.sleep(1000);
+            session.stop();
+            System.out.printf("%nToo slow: %d frames dropped by the input%n%s%n", slowInput.getDroppedFrames(),
+                    session.getStats());
+        }
+    }
+
+    // circular byte buffer between the two lines, holding whole frames only
+    private static final class ByteRing implements VirtualSourceLine.Sink, VirtualTargetLine.Source {
+        private final byte[] buffer;
+        private final int frameBytes;
+        private final boolean dropOldest; // overwrite the oldest bytes instead of refusing new ones
+        private int head;  // index of the oldest byte
+        private int count;
+        private long droppedBytes;
+
+        ByteRing(int capacity, int frameBytes, boolean dropOldest) {
+            this.buffer = new byte[capacity];
+            this.frameBytes = frameBytes;
+            this.dropOldest = dropOldest;
+        }
+
+        @Override
+        public synchronized int write(byte[] b, int off, int len) {
+            if (dropOldest) {
+                if (len > buffer.length) {
+                    droppedBytes += len - buffer.length;
+                    off += len - buffer.length;
+                    len = buffer.length;
+                }
+                int excess = count + len - buffer.length;
+                if (excess > 0) {
+                    head = (head + excess) % buffer.length;
+                    count -= excess;
+                    droppedBytes += excess;
+                }
+            } else {
+                len = Math.min(len, buffer.length - count);
+            }
+
+            int tail = (head + count) % buffer.length;
+            int first = Math.min(len, buffer.length - tail);
+            System.arraycopy(b, off, buffer, tail, first);
+            System.arraycopy(b, off + first, buffer, 0, len - first);
+            count += len;
+            return len;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            len = Math.min(len, count);
+            int first = Math.min(len, buffer.length - head);
+            System.arraycopy(buffer, head, b, off, first);
+            System.arraycopy(buffer, 0, b, off + first, len - first);
+            head = (head + len) % buffer.length;
+            count -= len;
+            return len;
+        }
+
+        @Override
+        public synchronized int available() {
+            return count;
+        }
+
+        @Override
+        public synchronized void flush() {
+            head = 0;
+            count = 0;
+        }
+
+        synchronized long getDroppedBytes() {
+            return droppedBytes;
+        }
+    }
+}
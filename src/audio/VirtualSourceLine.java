@@ -0,0 +1,203 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/** A playback line that needs no audio device: the bytes written to it go to a {@link Sink},
+ * which discards them, keeps them for inspection or feeds a {@link VirtualLoopback}.
+ *
+ * A paced line plays one frame per sample period while started, from a buffer that write()
+ * fills, waiting for room like a sound card. When the buffer runs empty after the first write,
+ * the device plays silence (an underrun): it is counted by getUnderruns() and available()
+ * reports an empty buffer. A free running line plays every block as soon as it is written.
+ *
+ * Example of use:
+ * VirtualSourceLine output = VirtualSourceLine.capturing(format, 44100, false);
+ * ...
+ * double[] left = output.getCaptured(0);
+ */
+public class VirtualSourceLine extends VirtualLine implements SourceDataLine {
+
+    /** Receives the bytes played by the line, in the line format. */
+    @FunctionalInterface
+    public interface Sink {
+        /** Takes up to len bytes (a whole number of frames) from b without waiting.
+         * @return the number of bytes taken, a whole number of frames */
+        int write(byte[] b, int off, int len);
+
+        /** Discards the bytes not consumed yet, if any. */
+        default void flush() { }
+    }
+
+    private static final Sink DISCARD = (b, off, len) -> len;
+
+    private final Sink sink;
+    private final byte[] captured; // the first bytes played, if capturing
+    private int capturedBytes;
+    private long written;    // frames written since opened
+    private long end;        // paced lines: device frame at which the buffered frames will have been played
+    private boolean starved; // paced lines: the buffer ran empty and nothing was written since
+    private long underruns;
+    private int lastWrite;   // free running lines: bytes of the last write, considered still playing
+
+    /** @param bufferFrames the number of frames the simulated device buffers
+     * @param paced true to follow a real-time clock, false to play every block at once
+     * @param captureFrames the number of frames to keep, from the first one played, 0 for none */
+    public VirtualSourceLine(AudioFormat format, int bufferFrames, boolean paced, Sink sink, int captureFrames) {
+        super(format, bufferFrames, paced);
+        if (captureFrames < 0) throw new IllegalArgumentException("The capture length must not be negative");
+        this.sink = sink;
+        this.captured = new byte[Math.multiplyExact(captureFrames, format.getFrameSize())];
+    }
+
+    /** A line discarding every frame, with a buffer of half a second. */
+    public static VirtualSourceLine discarding(AudioFormat format, boolean paced) {
+        return new VirtualSourceLine(format, defaultBufferFrames(format), paced, DISCARD, 0);
+    }
+
+    /** A line keeping the first frames played, available through getCaptured(). */
+    public static VirtualSourceLine capturing(AudioFormat format, int frames, boolean paced) {
+        return new VirtualSourceLine(format, defaultBufferFrames(format), paced, DISCARD, frames);
+    }
+
+    /** Writes len bytes, waiting for room in the buffer if the line is paced. A stopped line only
+     * takes the bytes that fit at once.
+     * @param len a whole number of frames
+     * @return the number of bytes written */
+    @Override
+    public int write(byte[] b, int off, int len) {
+        int frames = frames(len);
+        if (!isOpen()) return 0;
+
+        int done = 0;
+        while (done < frames) {
+            int count = frames - done;
+            if (isPaced()) {
+                long room = getBufferFrames() - queuedFrames();
+                if (room < count) {
+                    // wait for the device to play what is missing, then write what fits
+                    if (awaitDeviceFrame(deviceFrames() + count - room)) continue;
+                    count = (int) Math.max(0, Math.min(count, getBufferFrames() - queuedFrames()));
+                    if (count == 0) break;
+                }
+            }
+
+            int taken = sink.write(b, off + done * frameBytes, count * frameBytes) / frameBytes;
+            synchronized (this) {
+                capture(b, off + done * frameBytes, taken * frameBytes);
+                if (isPaced()) {
+                    end = Math.max(end, deviceFrames()) + taken;
+                    starved = false;
+                }
+                written += taken;
+            }
+            done += taken;
+            if (taken == 0 && !pause()) break;
+        }
+        lastWrite = done * frameBytes;
+        return done * frameBytes;
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        int count = Math.min(len, captured.length - capturedBytes);
+        if (count > 0) {
+            System.arraycopy(b, off, captured, capturedBytes, count);
+            capturedBytes += count;
+        }
+    }
+
+    // frames written and not played yet, counting an underrun when the buffer ran empty; a free
+    // running line plays the frames as they are written and never runs empty
+    private synchronized long queuedFrames() {
+        long now = deviceFrames();
+        if (isPaced() && now > end && written > 0 && !starved) {
+            // the last frame was played before the next write: the device plays silence
+            underruns++;
+            starved = true;
+        }
+        return Math.max(0, end - now);
+    }
+
+    /** @return the number of bytes that can be written without waiting */
+    @Override
+    public int available() {
+        if (isPaced()) return (int) (getBufferFrames() - queuedFrames()) * frameBytes;
+        return getBufferSize() - Math.min(lastWrite, getBufferSize());
+    }
+
+    /** Waits until the buffered frames have been played, or the line is stopped. */
+    @Override
+    public void drain() {
+        if (isPaced()) {
+            long last;
+            synchronized (this) {
+                last = end;
+            }
+            awaitDeviceFrame(last);
+        }
+    }
+
+    /** Discards the frames not played yet. */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            long queued = queuedFrames();
+            end -= queued;
+            written -= queued;
+        }
+        sink.flush();
+    }
+
+    /** @return the number of frames played since the line was opened */
+    @Override
+    public synchronized long getLongFramePosition() {
+        return isPaced() ? written - queuedFrames() : written;
+    }
+
+    /** @return the number of times the device ran out of frames to play since the line was opened */
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    /** @return the number of frames kept so far */
+    public synchronized int getCapturedFrames() {
+        return capturedBytes / frameBytes;
+    }
+
+    /** Decodes the kept frames of one channel.
+     * @return the samples, full scale being 1 */
+    public double[] getCaptured(int channel) {
+        PCMCodec codec = new PCMCodec(getFormat());
+        synchronized (this) {
+            double[] samples = new double[capturedBytes / frameBytes];
+            codec.decodeChannel(captured, 0, channel, samples, 0, samples.length);
+            return samples;
+        }
+    }
+
+    /** Forgets the kept frames, to capture the next ones. */
+    public synchronized void clearCaptured() {
+        capturedBytes = 0;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, getFormat(), getBufferSize());
+    }
+
+    @Override
+    void opened() throws LineUnavailableException {
+        written = 0;
+        end = 0;
+        starved = false;
+        underruns = 0;
+        lastWrite = 0;
+    }
+
+    @Override
+    void closed() {
+    }
+}
@@ -0,0 +1,284 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** A capture line that needs no audio device: its samples come from a {@link Source}, such as a
+ * signal generator or a WAV file, paced by a simulated device clock or as fast as they are read.
+ *
+ * A paced line captures one frame per sample period while started. When the reader falls more
+ * than a buffer behind, the oldest frames are lost (an overrun): they are counted by
+ * getDroppedFrames() and available() reports a full buffer, as a sound card would.
+ *
+ * Example of use:
+ * VirtualTargetLine input = VirtualTargetLine.sine(new AudioFormat(44100, 16, 2, true, false), 440, 0.5, true);
+ * input.open();
+ * input.start();
+ * AudioProcessor processor = new AudioProcessor(input, output, 1024);
+ */
+public class VirtualTargetLine extends VirtualLine implements TargetDataLine {
+
+    /** Provides the bytes captured by the line, in the line format. */
+    @FunctionalInterface
+    public interface Source {
+        /** Copies up to len bytes (a whole number of frames) into b without waiting.
+         * @return the number of bytes copied, a whole number of frames */
+        int read(byte[] b, int off, int len);
+
+        /** @return the number of bytes that could be read at once, 0 if produced on demand */
+        default int available() { return 0; }
+
+        /** Called when the line opens. */
+        default void open() throws LineUnavailableException { }
+
+        /** Called when the line closes. */
+        default void close() { }
+
+        /** Discards the bytes waiting to be read, if any. */
+        default void flush() { }
+    }
+
+    /** Generates samples in floating point, full scale being 1. */
+    @FunctionalInterface
+    public interface Generator {
+        /** Writes the next frames samples of every channel into channels[c][0..frames-1]. */
+        void generate(double[][] channels, int frames);
+    }
+
+    private final Source source;
+    private long position;     // frames delivered since opened
+    private long droppedFrames; // frames lost to overruns
+
+    /** @param bufferFrames the number of frames the simulated device keeps before dropping them
+     * @param paced true to follow a real-time clock, false to produce frames as fast as they are read */
+    public VirtualTargetLine(AudioFormat format, int bufferFrames, boolean paced, Source source) {
+        super(format, bufferFrames, paced);
+        this.source = source;
+    }
+
+    /** A line capturing the samples of a generator, with a buffer of half a second. */
+    public static VirtualTargetLine generator(AudioFormat format, boolean paced, Generator generator) {
+        return new VirtualTargetLine(format, defaultBufferFrames(format), paced, new GeneratorSource(format, generator));
+    }
+
+    /** A line capturing a sine wave, the same on every channel.
+     * @param amplitude peak amplitude, 1 being full scale */
+    public static VirtualTargetLine sine(AudioFormat format, double frequency, double amplitude, boolean paced) {
+        return generator(format, paced, new Sine(frequency / format.getSampleRate(), amplitude));
+    }
+
+    /** A line capturing the samples of a WAV file, in the format of the file. The file is opened
+     * with the line and closed with it.
+     * @param loop true to start over at the end of the file, false to capture silence after it
+     * @throws IOException if the file cannot be read */
+    public static VirtualTargetLine file(Path path, boolean loop, boolean paced) throws IOException {
+        AudioFormat format;
+        try (WavFileReader reader = new WavFileReader(path)) {
+            format = reader.getFormat();
+        }
+        return new VirtualTargetLine(format, defaultBufferFrames(format), paced, new FileSource(path, format, loop));
+    }
+
+    /** Reads len bytes, waiting for the device clock if the line is paced. A stopped line returns
+     * the bytes already captured only.
+     * @param len a whole number of frames
+     * @return the number of bytes read */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int frames = frames(len);
+        if (!isOpen()) return 0;
+
+        if (isPaced()) {
+            long due;
+            synchronized (this) {
+                due = deviceFrames();
+                if (due - position > getBufferFrames()) {
+                    droppedFrames += due - position - getBufferFrames();
+                    position = due - getBufferFrames();
+                }
+            }
+            if (!awaitDeviceFrame(position + frames)) {
+                frames = (int) Math.max(0, Math.min(frames, deviceFrames() - position));
+            }
+        } else if (!isRunning()) {
+            frames = Math.min(frames, source.available() / frameBytes);
+        }
+
+        int wanted = frames * frameBytes, done = 0;
+        while (done < wanted) {
+            int count = source.read(b, off + done, wanted - done);
+            done += count;
+            if (count == 0 && !pause()) break;
+        }
+        synchronized (this) {
+            position += done / frameBytes;
+        }
+        return done;
+    }
+
+    /** @return the number of bytes captured and not read yet */
+    @Override
+    public int available() {
+        if (!isPaced()) return Math.min(source.available(), getBufferSize());
+        synchronized (this) {
+            long waiting = Math.max(0, Math.min(deviceFrames() - position, getBufferFrames()));
+            return (int) waiting * frameBytes;
+        }
+    }
+
+    /** Does nothing: a capture line has nothing to drain. */
+    @Override
+    public void drain() {
+    }
+
+    /** Discards the captured frames not read yet. */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            if (isPaced()) position = deviceFrames();
+        }
+        source.flush();
+    }
+
+    /** @return the number of frames captured since the line was opened */
+    @Override
+    public synchronized long getLongFramePosition() {
+        return isPaced() ? deviceFrames() : position;
+    }
+
+    /** @return the number of frames lost because the reader fell behind, since the line was opened */
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new DataLine.Info(TargetDataLine.class, getFormat(), getBufferSize());
+    }
+
+    @Override
+    void opened() throws LineUnavailableException {
+        position = 0;
+        droppedFrames = 0;
+        source.open();
+    }
+
+    @Override
+    void closed() {
+        source.close();
+    }
+
+    // encodes the samples of a generator, CHUNK frames at a time
+    private static final class GeneratorSource implements Source {
+        private static final int CHUNK = 1024;
+        private final Generator generator;
+        private final PCMCodec codec;
+        private final double[][] channels;
+
+        GeneratorSource(AudioFormat format, Generator generator) {
+            this.generator = generator;
+            this.codec = new PCMCodec(format);
+            this.channels = new double[format.getChannels()][CHUNK];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int frames = len / codec.getFrameBytes();
+            for (int done = 0; done < frames; done += CHUNK) {
+                int count = Math.min(CHUNK, frames - done);
+                generator.generate(channels, count);
+                int offset = off + done * codec.getFrameBytes();
+                for (int c = 0; c < channels.length; c++) {
+                    codec.encodeChannel(channels[c], 0, b, offset, c, count);
+                }
+            }
+            return frames * codec.getFrameBytes();
+        }
+    }
+
+    private static final class Sine implements Generator {
+        private final double cyclesPerFrame, amplitude;
+        private double phase; // in cycles
+
+        Sine(double cyclesPerFrame, double amplitude) {
+            this.cyclesPerFrame = cyclesPerFrame;
+            this.amplitude = amplitude;
+        }
+
+        @Override
+        public void generate(double[][] channels, int frames) {
+            for (int i = 0; i < frames; i++) {
+                double x = amplitude * Math.sin(2 * Math.PI * phase);
+                for (double[] channel : channels) channel[i] = x;
+                phase += cyclesPerFrame;
+                if (phase >= 1) phase -= 1;
+            }
+        }
+    }
+
+    private static final class FileSource implements Source {
+        private final Path path;
+        private final boolean loop;
+        private final byte silence;
+        private final int frameBytes;
+        private WavFileReader reader;
+
+        FileSource(Path path, AudioFormat format, boolean loop) {
+            this.path = path;
+            this.loop = loop;
+            this.frameBytes = format.getFrameSize();
+            // 8 bit WAV samples are unsigned
+            this.silence = format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED ? (byte) 0x80 : 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int frames = len / frameBytes;
+            try {
+                int done = 0;
+                while (done < frames) {
+                    int count = reader.readBytes(b, off + done * frameBytes, frames - done);
+                    if (count > 0) {
+                        done += count;
+                    } else if (loop && reader.getFrames() > 0) {
+                        reader.seek(0);
+                    } else {
+                        Arrays.fill(b, off + done * frameBytes, off + frames * frameBytes, silence);
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return frames * frameBytes;
+        }
+
+        @Override
+        public void open() throws LineUnavailableException {
+            try {
+                reader = new WavFileReader(path);
+            } catch (IOException e) {
+                LineUnavailableException failure = new LineUnavailableException("Cannot read " + path + ": " + e.getMessage());
+                failure.initCause(e);
+                throw failure;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing was written
+            }
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Reads the samples of a WAV file (RIFF, or RF64 for files over 4 GB) block by block, through
+ * memory mapped windows of the file.
+ *
+ * The data chunk is mapped WINDOW_BYTES at a time and each block is decoded straight from the
+ * mapping into the channel buffers of an {@link AudioSignal}: the only copy is the PCM decoding
+ * itself. Supports integer PCM of 8 to 32 bits and 32 bit float samples, including the
+ * WAVE_FORMAT_EXTENSIBLE variants.
+ *
+ * Example of use:
+ * try (WavFileReader reader = new WavFileReader(Path.of("take1.wav"))) {
+ *     AudioSignal signal = new AudioSignal(1024, reader.getFormat().getChannels());
+ *     while (reader.read(signal) > 0) { ... }
+ * }
+ */
+public class WavFileReader implements AutoCloseable {
+    static final int WINDOW_BYTES = 1 << 26; // 64 MB mapped at once
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final PCMCodec codec;
+    private final long dataOffset; // file position of the first sample
+    private final long frames;
+    private long position;         // next frame to read
+
+    private MappedByteBuffer window;
+    private long windowStart;      // file position of the window
+    private int windowBytes;
+
+    /** Opens the file and parses its header.
+     * @throws IOException if the file is not a WAV file or its sample format is not supported */
+    public WavFileReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readAt(0, 12);
+            int riff = header.getInt(0);
+            if ((riff != tag("RIFF") && riff != tag("RF64")) || header.getInt(8) != tag("WAVE")) {
+                throw new IOException(path + " is not a WAV file");
+            }
+
+            AudioFormat format = null;
+            long dataOffset = -1, dataSize = 0, rf64DataSize = -1;
+            long chunk = 12;
+            while (chunk + 8 <= channel.size() && dataOffset < 0) {
+                ByteBuffer chunkHeader = readAt(chunk, 8);
+                int id = chunkHeader.getInt(0);
+                long size = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+
+                if (id == tag("ds64")) {
+                    rf64DataSize = readAt(chunk + 8, 16).getLong(8);
+                } else if (id == tag("fmt ")) {
+                    format = parseFormat(readAt(chunk + 8, (int) Math.min(size, 40)), path);
+                } else if (id == tag("data")) {
+                    dataOffset = chunk + 8;
+                    dataSize = size == 0xFFFFFFFFL && rf64DataSize >= 0 ? rf64DataSize : size;
+                }
+                chunk += 8 + size + (size & 1); // chunks are padded to an even size
+            }
+            if (format == null || dataOffset < 0) {
+                throw new IOException(path + " has no fmt or data chunk");
+            }
+
+            this.format = format;
+            try {
+                this.codec = new PCMCodec(format);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + ": unsupported WAV format " + format, e);
+            }
+            this.dataOffset = dataOffset;
+            // a file whose writing was interrupted may be shorter than its header says
+            this.frames = Math.min(dataSize, channel.size() - dataOffset) / codec.getFrameBytes();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static AudioFormat parseFormat(ByteBuffer fmt, Path path) throws IOException {
+        int formatTag = fmt.getShort(0) & 0xFFFF;
+        int channels = fmt.getShort(2) & 0xFFFF;
+        float sampleRate = fmt.getInt(4);
+        int bits = fmt.getShort(14) & 0xFFFF;
+        if (formatTag == FORMAT_EXTENSIBLE && fmt.limit() >= 26) {
+            formatTag = fmt.getShort(24) & 0xFFFF; // first bytes of the sub format GUID
+        }
+
+        AudioFormat.Encoding encoding;
+        if (formatTag == FORMAT_FLOAT) {
+            encoding = AudioFormat.Encoding.PCM_FLOAT;
+        } else if (formatTag == FORMAT_PCM) {
+            encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        } else {
+            throw new IOException(path + ": unsupported WAV format tag " + formatTag);
+        }
+        return new AudioFormat(encoding, sampleRate, bits, channels, bits / 8 * channels, sampleRate, false);
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /** @return the number of frames (samples per channel) of the file */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** @return the index of the next frame to be read */
+    public long getPosition() {
+        return position;
+    }
+
+    /** Moves to the given frame. */
+    public void seek(long frame) {
+        if (frame < 0 || frame > frames) throw new IllegalArgumentException("No frame " + frame);
+        position = frame;
+    }
+
+    /** Reads the next signal.getFrameSize() frames into the channel buffers of the signal. Signal
+     * channel c receives file channel c modulo the number of file channels, and the end of the
+     * buffers is filled with silence when the file ends.
+     * @return the number of frames read, -1 at end of file */
+    public int read(AudioSignal signal) throws IOException {
+        if (position == frames) return -1;
+        int count = (int) Math.min(signal.getFrameSize(), frames - position);
+        int offset = mapNext(count);
+        for (int c = 0; c < signal.getChannels(); c++) {
+            double[] buffer = signal.getChannelBuffer(c);
+            codec.decodeChannel(window, offset, c % codec.getChannels(), buffer, 0, count);
+            Arrays.fill(buffer, count, signal.getFrameSize(), 0.0);
+        }
+        position += count;
+        return count;
+    }
+
+    /** Same as read(AudioSignal), in single precision. */
+    public int read(FloatAudioSignal signal) throws IOException {
+        if (position == frames) return -1;
+        int count = (int) Math.min(signal.getFrameSize(), frames - position);
+        int offset = mapNext(count);
+        for (int c = 0; c < signal.getChannels(); c++) {
+            float[] buffer = signal.getChannelBuffer(c);
+            codec.decodeChannel(window, offset, c % codec.getChannels(), buffer, 0, count);
+            Arrays.fill(buffer, count, signal.getFrameSize(), 0.0f);
+        }
+        position += count;
+        return count;
+    }
+
+    /** Copies up to maxFrames of the next frames as they are stored, in the format of getFormat(),
+     * without decoding them.
+     * @return the number of frames copied, -1 at end of file */
+    public int readBytes(byte[] dst, int offset, int maxFrames) throws IOException {
+        if (position == frames) return -1;
+        int count = (int) Math.min(maxFrames, frames - position);
+        int windowOffset = mapNext(count);
+        window.get(windowOffset, dst, offset, count * codec.getFrameBytes());
+        position += count;
+        return count;
+    }
+
+    // maps the next count frames if needed and returns their offset in the window
+    private int mapNext(int count) throws IOException {
+        int frameBytes = codec.getFrameBytes();
+        long start = dataOffset + position * frameBytes;
+        int length = count * frameBytes;
+        if (window == null || start < windowStart || start + length > windowStart + windowBytes) {
+            map(start, Math.max(length, WINDOW_BYTES));
+        }
+        return (int) (start - windowStart);
+    }
+
+    // maps up to size bytes of the data chunk from the given file position
+    private void map(long start, int size) throws IOException {
+        long end = Math.min(dataOffset + frames * codec.getFrameBytes(), start + size);
+        windowStart = start;
+        windowBytes = (int) (end - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowBytes);
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        return buffer;
+    }
+
+    // a four character chunk id as read by a little endian getInt
+    static int tag(String id) {
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+
+    /** Releases the file. The last mapped window is released by the garbage collector. */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
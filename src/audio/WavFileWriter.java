@@ -0,0 +1,216 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Writes a WAV file block by block through memory mapped windows of the file, switching to the
+ * RF64 header when the data does not fit in a plain RIFF file (4 GB).
+ *
+ * The number of frames is given upfront so that the file can be mapped window by window without
+ * ever being truncated (a mapped file cannot be truncated on every platform). Each block is encoded
+ * straight from the channel buffers of an {@link AudioSignal} into the mapping. The header reserves
+ * a JUNK chunk that close() turns into a ds64 chunk when RF64 is needed, and always records the
+ * number of frames actually written.
+ *
+ * Separate parts of the file can also be written concurrently, one thread per {@link Region},
+ * e.g. to process chunks of a long file in parallel.
+ *
+ * Example of use:
+ * try (WavFileWriter writer = new WavFileWriter(Path.of("out.wav"), reader.getFormat(), reader.getFrames())) {
+ *     writer.write(signal, framesRead);
+ * }
+ */
+public class WavFileWriter implements AutoCloseable {
+    private static final int HEADER_BYTES = 80; // RIFF, JUNK/ds64, fmt and data chunk headers
+    private static final long RIFF_LIMIT = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final PCMCodec codec;
+    private final long frames;     // frames the file is sized for
+    private final Region sequential;
+    private final AtomicLong end = new AtomicLong(); // end of the frames written so far, by any region
+
+    /** Creates or replaces the file.
+     * @param format little endian signed PCM of 16, 24 or 32 bits, unsigned PCM of 8 bits or 32 bit float
+     * @param frames the number of frames that will be written */
+    public WavFileWriter(Path path, AudioFormat format, long frames) throws IOException {
+        boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+        if (format.isBigEndian() && format.getSampleSizeInBits() > 8
+                || unsigned != (format.getSampleSizeInBits() == 8)) {
+            throw new IllegalArgumentException("WAV files hold little endian samples, unsigned only if 8 bit: " + format);
+        }
+        this.codec = new PCMCodec(format);
+        this.format = format;
+        this.frames = frames;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.sequential = new Region(0, frames);
+        writeHeader(0);
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /** @return the number of frames written so far, or the end of the last frame written by a region */
+    public long getPosition() {
+        return end.get();
+    }
+
+    /** Writes the first count frames of the channel buffers of the signal after the previous ones.
+     * File channel c receives signal channel c modulo the number of signal channels. */
+    public void write(AudioSignal signal, int count) throws IOException {
+        sequential.write(signal, count);
+    }
+
+    /** Same as write(AudioSignal, int), in single precision. */
+    public void write(FloatAudioSignal signal, int count) throws IOException {
+        sequential.write(signal, count);
+    }
+
+    /** @return a region of the file that one thread may write while others write other regions
+     * @param firstFrame the first frame of the region
+     * @param frames the number of frames of the region */
+    public Region region(long firstFrame, long frames) {
+        if (firstFrame < 0 || firstFrame + frames > this.frames) {
+            throw new IllegalArgumentException("The file was sized for " + this.frames + " frames");
+        }
+        return new Region(firstFrame, frames);
+    }
+
+    /** Consecutive frames of the file, written sequentially through their own mapped windows. */
+    public final class Region {
+        private final long firstFrame, lastFrame;
+        private long position;         // next frame to write
+        private MappedByteBuffer window;
+        private long windowStart;
+        private int windowBytes;
+
+        private Region(long firstFrame, long frames) {
+            this.firstFrame = firstFrame;
+            this.lastFrame = firstFrame + frames;
+            this.position = firstFrame;
+        }
+
+        /** @return the index in the file of the next frame to write */
+        public long getPosition() {
+            return position;
+        }
+
+        /** Writes the first count frames of the channel buffers of the signal after the previous ones. */
+        public void write(AudioSignal signal, int count) throws IOException {
+            int offset = mapNext(count);
+            for (int c = 0; c < codec.getChannels(); c++) {
+                codec.encodeChannel(signal.getChannelBuffer(c % signal.getChannels()), 0, window, offset, c, count);
+            }
+            advance(count);
+        }
+
+        /** Same as write(AudioSignal, int), in single precision. */
+        public void write(FloatAudioSignal signal, int count) throws IOException {
+            int offset = mapNext(count);
+            for (int c = 0; c < codec.getChannels(); c++) {
+                codec.encodeChannel(signal.getChannelBuffer(c % signal.getChannels()), 0, window, offset, c, count);
+            }
+            advance(count);
+        }
+
+        // maps the next count frames if needed and returns their offset in the window
+        private int mapNext(int count) throws IOException {
+            if (position + count > lastFrame) {
+                throw new IllegalStateException("The region ends at frame " + lastFrame);
+            }
+            int frameBytes = codec.getFrameBytes();
+            long start = HEADER_BYTES + position * frameBytes;
+            int length = count * frameBytes;
+            if (window == null || start + length > windowStart + windowBytes) {
+                long limit = Math.min(HEADER_BYTES + lastFrame * frameBytes, start + Math.max(length, WavFileReader.WINDOW_BYTES));
+                windowStart = start;
+                windowBytes = (int) (limit - start);
+                window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowBytes);
+            }
+            return (int) (start - windowStart);
+        }
+
+        private void advance(int count) {
+            position += count;
+            end.accumulateAndGet(position, Math::max);
+        }
+
+        /** Writes the mapped samples back to the file. */
+        public void force() {
+            if (window != null) window.force();
+        }
+    }
+
+    // RIFF header, with a ds64 chunk instead of the JUNK one for RF64 files
+    private void writeHeader(long framesWritten) throws IOException {
+        long dataBytes = framesWritten * codec.getFrameBytes();
+        long riffBytes = HEADER_BYTES - 8 + dataBytes + (dataBytes & 1);
+        boolean rf64 = riffBytes > RIFF_LIMIT;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(WavFileReader.tag(rf64 ? "RF64" : "RIFF"));
+        header.putInt(rf64 ? -1 : (int) riffBytes);
+        header.putInt(WavFileReader.tag("WAVE"));
+
+        header.putInt(WavFileReader.tag(rf64 ? "ds64" : "JUNK"));
+        header.putInt(28);
+        header.putLong(rf64 ? riffBytes : 0);
+        header.putLong(rf64 ? dataBytes : 0);
+        header.putLong(rf64 ? framesWritten : 0);
+        header.putInt(0); // no table
+
+        boolean floating = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        header.putInt(WavFileReader.tag("fmt "));
+        header.putInt(16);
+        header.putShort((short) (floating ? 3 : 1));
+        header.putShort((short) codec.getChannels());
+        header.putInt((int) format.getSampleRate());
+        header.putInt((int) format.getSampleRate() * codec.getFrameBytes());
+        header.putShort((short) codec.getFrameBytes());
+        header.putShort((short) format.getSampleSizeInBits());
+
+        header.putInt(WavFileReader.tag("data"));
+        header.putInt(rf64 ? -1 : (int) dataBytes);
+
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /** Flushes the samples, writes the final header and closes the file. Regions must have been
+     * written and forced by their threads before. If fewer frames than
+     * announced were written, the file is truncated when the platform allows it; otherwise the
+     * header still gives the right length and the rest is ignored by readers. */
+    @Override
+    public void close() throws IOException {
+        try {
+            sequential.force();
+            long written = end.get();
+            writeHeader(written);
+            long size = HEADER_BYTES + written * codec.getFrameBytes();
+            if (channel.size() > size) {
+                try {
+                    channel.truncate(size);
+                } catch (IOException e) {
+                    // still mapped (Windows): keep the silent tail
+                }
+            }
+            if ((size & 1) != 0 && channel.size() == size) {
+                channel.write(ByteBuffer.allocate(1), size); // pad byte of an odd sized data chunk
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
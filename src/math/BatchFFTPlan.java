@@ -0,0 +1,142 @@
+package math;
+
+/** Transforms many frames of the same size with one plan, e.g. all the frames of a spectrogram.
+ *
+ * Frames are stored one after the other in a contiguous block: frame f occupies
+ * re[f*n .. f*n+n-1] and im[f*n .. f*n+n-1]. For power of 2 sizes, groups of {@link #LANES}
+ * frames are interleaved into a scratch buffer (sample i of frame f at i*LANES + f), so every
+ * butterfly applies the same twiddle factor to LANES consecutive values: the innermost loop runs
+ * over contiguous memory, fills whole cache lines and maps onto the SIMD lanes of the
+ * {@link ButterflyKernel}. Remaining frames,
+ * and sizes that are not powers of 2, go through a regular {@link FFTPlan} one frame at a time.
+ *
+ * The plan owns its scratch buffer and must not be shared between threads.
+ *
+ * Example of use:
+ * BatchFFTPlan plan = BatchFFTPlan.create(1024);
+ * plan.forward(re, im, frames); // re.length == im.length == frames * 1024
+ */
+public final class BatchFFTPlan {
+    /** Number of frames transformed together. */
+    public static final int LANES = 8;
+
+    private final int n;
+    private final FFTPlan framePlan;
+    private final int[] bitReversed;
+    private final double[] cos, sin; // w^k for k < n/2
+    private final double[] bufRe, bufIm;
+    private final ButterflyKernel kernel = ButterflyKernel.get();
+
+    private BatchFFTPlan(int n) {
+        this.n = n;
+        this.framePlan = FFTPlan.create(n);
+
+        if ((n & (n - 1)) == 0) {
+            int bits = Integer.numberOfTrailingZeros(n);
+            bitReversed = new int[n];
+            for (int i = 1; i < n; i++) {
+                bitReversed[i] = Integer.reverse(i) >>> (Integer.SIZE - bits);
+            }
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                double kth = -2 * k * Math.PI / n;
+                cos[k] = Math.cos(kth);
+                sin[k] = Math.sin(kth);
+            }
+            bufRe = new double[n * LANES];
+            bufIm = new double[n * LANES];
+        } else {
+            bitReversed = null;
+            cos = sin = bufRe = bufIm = null;
+        }
+    }
+
+    /** Returns a batch plan for frames of length n.
+     * @param n the frame size, must be positive */
+    public static BatchFFTPlan create(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        return new BatchFFTPlan(n);
+    }
+
+    /** @return the frame size */
+    public int size() {
+        return n;
+    }
+
+    /** Computes the forward transform of each of the given frames, in place.
+     * @param frames the number of frames, re and im must hold at least frames * n values */
+    public void forward(double[] re, double[] im, int frames) {
+        int f = 0;
+        if (bitReversed != null) {
+            for (; f + LANES <= frames; f += LANES) {
+                forwardInterleaved(re, im, f * n);
+            }
+        }
+        for (; f < frames; f++) {
+            framePlan.forward(re, f * n, im, f * n);
+        }
+    }
+
+    /** Computes the inverse transform of each of the given frames, in place, scaled by 1/n.
+     * @param frames the number of frames, re and im must hold at least frames * n values */
+    public void inverse(double[] re, double[] im, int frames) {
+        // swapping real and imaginary parts turns the forward transform into an unscaled inverse
+        forward(im, re, frames);
+
+        double scale = 1.0 / n;
+        for (int i = 0; i < frames * n; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    // transforms LANES frames starting at offset
+    private void forwardInterleaved(double[] re, double[] im, int offset) {
+        // gather in bit-reversed order, interleaving the frames
+        for (int i = 0; i < n; i++) {
+            int src = offset + bitReversed[i];
+            int dst = i * LANES;
+            for (int lane = 0; lane < LANES; lane++) {
+                bufRe[dst + lane] = re[src + lane * n];
+                bufIm[dst + lane] = im[src + lane * n];
+            }
+        }
+
+        // radix-4 passes (plus one radix-2 pass when log2(n) is odd), the innermost loop runs
+        // over the lanes with shared twiddle factors
+        int m = 1;
+        if ((Integer.numberOfTrailingZeros(n) & 1) != 0) {
+            for (int i = 0; i < n * LANES; i += 2 * LANES) {
+                for (int lane = i; lane < i + LANES; lane++) {
+                    double ur = bufRe[lane], ui = bufIm[lane];
+                    double xr = bufRe[lane + LANES], xi = bufIm[lane + LANES];
+                    bufRe[lane] = ur + xr; bufIm[lane] = ui + xi;
+                    bufRe[lane + LANES] = ur - xr; bufIm[lane + LANES] = ui - xi;
+                }
+            }
+            m = 2;
+        }
+        for (; m < n; m *= 4) {
+            int stride2 = n / (2 * m), stride4 = n / (4 * m);
+            for (int block = 0; block < n; block += 4 * m) {
+                for (int j = 0; j < m; j++) {
+                    double w1r = cos[j * stride2], w1i = sin[j * stride2];
+                    double w2r = cos[j * stride4], w2i = sin[j * stride4];
+                    kernel.radix4Lanes(bufRe, bufIm, (block + j) * LANES, m * LANES, LANES, w1r, w1i, w2r, w2i);
+                }
+            }
+        }
+
+        // scatter back to the contiguous frames
+        for (int lane = 0; lane < LANES; lane++) {
+            int dst = offset + lane * n;
+            for (int i = 0; i < n; i++) {
+                re[dst + i] = bufRe[i * LANES + lane];
+                im[dst + i] = bufIm[i * LANES + lane];
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package math;
+
+import java.util.Arrays;
+
+/** Bluestein (chirp-z) FFT for sizes with prime factors greater than 7.
+ *
+ * Using nk = (n^2 + k^2 - (k-n)^2) / 2, the DFT of length n is rewritten as a convolution of the
+ * input multiplied by the chirp w[k] = e^(-i pi k^2 / n) with the conjugate chirp. That convolution
+ * is computed with power of 2 transforms of length m >= 2n - 1, which keeps any size O(n log n).
+ * The plan owns its convolution buffers and must not be shared between threads. */
+final class BluesteinFFTPlan extends FFTPlan {
+    private final FFTPlan convolutionPlan;
+    private final double[] chirpRe, chirpIm;   // w[k] for k < n
+    private final double[] kernelRe, kernelIm; // FFT of the conjugate chirp, length m
+    private final double[] bufRe, bufIm;       // convolution buffer, length m
+
+    BluesteinFFTPlan(int n) {
+        super(n);
+        int m = Integer.highestOneBit(2 * n - 1);
+        if (m < 2 * n - 1) m *= 2;
+        convolutionPlan = FFTPlan.create(m);
+
+        chirpRe = new double[n];
+        chirpIm = new double[n];
+        for (int k = 0; k < n; k++) {
+            // k^2 mod 2n keeps the angle small and accurate for large k
+            long k2 = ((long) k * k) % (2L * n);
+            double kth = -Math.PI * k2 / n;
+            chirpRe[k] = Math.cos(kth);
+            chirpIm[k] = Math.sin(kth);
+        }
+
+        kernelRe = new double[m];
+        kernelIm = new double[m];
+        kernelRe[0] = chirpRe[0];
+        kernelIm[0] = -chirpIm[0];
+        for (int k = 1; k < n; k++) {
+            kernelRe[k] = kernelRe[m - k] = chirpRe[k];
+            kernelIm[k] = kernelIm[m - k] = -chirpIm[k];
+        }
+        convolutionPlan.forward(kernelRe, kernelIm);
+
+        bufRe = new double[m];
+        bufIm = new double[m];
+    }
+
+    @Override
+    public void forward(double[] re, int reOff, double[] im, int imOff) {
+        int m = bufRe.length;
+
+        // multiply the input by the chirp and zero pad it
+        for (int k = 0; k < n; k++) {
+            double xr = re[reOff + k], xi = im[imOff + k];
+            bufRe[k] = xr * chirpRe[k] - xi * chirpIm[k];
+            bufIm[k] = xr * chirpIm[k] + xi * chirpRe[k];
+        }
+        Arrays.fill(bufRe, n, m, 0.0);
+        Arrays.fill(bufIm, n, m, 0.0);
+
+        // circular convolution with the conjugate chirp
+        convolutionPlan.forward(bufRe, bufIm);
+        for (int k = 0; k < m; k++) {
+            double ar = bufRe[k], ai = bufIm[k];
+            bufRe[k] = ar * kernelRe[k] - ai * kernelIm[k];
+            bufIm[k] = ar * kernelIm[k] + ai * kernelRe[k];
+        }
+        convolutionPlan.inverse(bufRe, bufIm);
+
+        // multiply the result by the chirp again
+        for (int k = 0; k < n; k++) {
+            double yr = bufRe[k], yi = bufIm[k];
+            re[reOff + k] = yr * chirpRe[k] - yi * chirpIm[k];
+            im[imOff + k] = yr * chirpIm[k] + yi * chirpRe[k];
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package math;
+
+/** The radix-4 butterfly pass of {@link Radix2FFTPlan} and {@link FloatFFTPlan}, with a portable
+ * scalar implementation and an optional SIMD one ({@link VectorButterflyKernel}).
+ *
+ * The SIMD kernel is picked at runtime when the jdk.incubator.vector module is available
+ * (run with --add-modules jdk.incubator.vector) and can be disabled with
+ * -Dmath.fft.vector=false. */
+class ButterflyKernel {
+    private static final ButterflyKernel INSTANCE = load();
+
+    /** @return the fastest kernel available on this JVM */
+    static ButterflyKernel get() {
+        return INSTANCE;
+    }
+
+    private static ButterflyKernel load() {
+        if (Boolean.parseBoolean(System.getProperty("math.fft.vector", "true"))) {
+            try {
+                // loaded by name: the class cannot be linked when the module is missing
+                return (ButterflyKernel) Class.forName("math.VectorButterflyKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // jdk.incubator.vector not available, keep the scalar kernel
+            }
+        }
+        return new ButterflyKernel();
+    }
+
+    /** @return a short description of the kernel, e.g. for logs */
+    String name() {
+        return "scalar";
+    }
+
+    /** Combines groups of four length m transforms into length 4m transforms, in place.
+     * @param w1r real part of w_2m^j for j < m (inner radix-2 stage)
+     * @param w1i imaginary part of w_2m^j
+     * @param w2r real part of w_4m^j for j < m (outer radix-2 stage)
+     * @param w2i imaginary part of w_4m^j */
+    void radix4Pass(double[] re, int reOff, double[] im, int imOff, int n, int m,
+                    double[] w1r, double[] w1i, double[] w2r, double[] w2i) {
+        for (int block = 0; block < n; block += 4 * m) {
+            radix4Scalar(re, reOff + block, im, imOff + block, m, 0, m, w1r, w1i, w2r, w2i);
+        }
+    }
+
+    // butterflies j in [from, to) of the block starting at re[reOff] / im[imOff]
+    static void radix4Scalar(double[] re, int reOff, double[] im, int imOff, int m, int from, int to,
+                             double[] w1r, double[] w1i, double[] w2r, double[] w2i) {
+        for (int j = from; j < to; j++) {
+            int r0 = reOff + j, r1 = r0 + m, r2 = r1 + m, r3 = r2 + m;
+            int i0 = imOff + j, i1 = i0 + m, i2 = i1 + m, i3 = i2 + m;
+
+            // inner stage: (x0, x1) and (x2, x3) with twiddle w1
+            double tr = w1r[j] * re[r1] - w1i[j] * im[i1];
+            double ti = w1r[j] * im[i1] + w1i[j] * re[r1];
+            double a0r = re[r0] + tr, a0i = im[i0] + ti;
+            double a1r = re[r0] - tr, a1i = im[i0] - ti;
+
+            tr = w1r[j] * re[r3] - w1i[j] * im[i3];
+            ti = w1r[j] * im[i3] + w1i[j] * re[r3];
+            double a2r = re[r2] + tr, a2i = im[i2] + ti;
+            double a3r = re[r2] - tr, a3i = im[i2] - ti;
+
+            // outer stage: (a0, a2) with twiddle w2 and (a1, a3) with twiddle -i*w2
+            tr = w2r[j] * a2r - w2i[j] * a2i;
+            ti = w2r[j] * a2i + w2i[j] * a2r;
+            re[r0] = a0r + tr; im[i0] = a0i + ti;
+            re[r2] = a0r - tr; im[i2] = a0i - ti;
+
+            tr = w2r[j] * a3r - w2i[j] * a3i;
+            ti = w2r[j] * a3i + w2i[j] * a3r;
+            re[r1] = a1r + ti; im[i1] = a1i - tr;
+            re[r3] = a1r - ti; im[i3] = a1i + tr;
+        }
+    }
+
+    /** Single precision version of radix4Pass, used by {@link FloatFFTPlan}. */
+    void radix4Pass(float[] re, int reOff, float[] im, int imOff, int n, int m,
+                    float[] w1r, float[] w1i, float[] w2r, float[] w2i) {
+        for (int block = 0; block < n; block += 4 * m) {
+            radix4Scalar(re, reOff + block, im, imOff + block, m, 0, m, w1r, w1i, w2r, w2i);
+        }
+    }
+
+    static void radix4Scalar(float[] re, int reOff, float[] im, int imOff, int m, int from, int to,
+                             float[] w1r, float[] w1i, float[] w2r, float[] w2i) {
+        for (int j = from; j < to; j++) {
+            int r0 = reOff + j, r1 = r0 + m, r2 = r1 + m, r3 = r2 + m;
+            int i0 = imOff + j, i1 = i0 + m, i2 = i1 + m, i3 = i2 + m;
+
+            float tr = w1r[j] * re[r1] - w1i[j] * im[i1];
+            float ti = w1r[j] * im[i1] + w1i[j] * re[r1];
+            float a0r = re[r0] + tr, a0i = im[i0] + ti;
+            float a1r = re[r0] - tr, a1i = im[i0] - ti;
+
+            tr = w1r[j] * re[r3] - w1i[j] * im[i3];
+            ti = w1r[j] * im[i3] + w1i[j] * re[r3];
+            float a2r = re[r2] + tr, a2i = im[i2] + ti;
+            float a3r = re[r2] - tr, a3i = im[i2] - ti;
+
+            tr = w2r[j] * a2r - w2i[j] * a2i;
+            ti = w2r[j] * a2i + w2i[j] * a2r;
+            re[r0] = a0r + tr; im[i0] = a0i + ti;
+            re[r2] = a0r - tr; im[i2] = a0i - ti;
+
+            tr = w2r[j] * a3r - w2i[j] * a3i;
+            ti = w2r[j] * a3i + w2i[j] * a3r;
+            re[r1] = a1r + ti; im[i1] = a1i - tr;
+            re[r3] = a1r - ti; im[i3] = a1i + tr;
+        }
+    }
+
+    /** Runs the same radix-4 butterfly on lanes consecutive values, as used by {@link BatchFFTPlan}
+     * on interleaved frames: x_k of lane l is at index r0 + k*step + l.
+     * @param w1r real part of the inner twiddle factor, shared by all lanes */
+    void radix4Lanes(double[] re, double[] im, int r0, int step, int lanes,
+                     double w1r, double w1i, double w2r, double w2i) {
+        for (int l = r0; l < r0 + lanes; l++) {
+            int r1 = l + step, r2 = r1 + step, r3 = r2 + step;
+
+            double tr = w1r * re[r1] - w1i * im[r1];
+            double ti = w1r * im[r1] + w1i * re[r1];
+            double a0r = re[l] + tr, a0i = im[l] + ti;
+            double a1r = re[l] - tr, a1i = im[l] - ti;
+
+            tr = w1r * re[r3] - w1i * im[r3];
+            ti = w1r * im[r3] + w1i * re[r3];
+            double a2r = re[r2] + tr, a2i = im[r2] + ti;
+            double a3r = re[r2] - tr, a3i = im[r2] - ti;
+
+            tr = w2r * a2r - w2i * a2i;
+            ti = w2r * a2i + w2i * a2r;
+            re[l] = a0r + tr; im[l] = a0i + ti;
+            re[r2] = a0r - tr; im[r2] = a0i - ti;
+
+            tr = w2r * a3r - w2i * a3i;
+            ti = w2r * a3i + w2i * a3r;
+            re[r1] = a1r + ti; im[r1] = a1i - tr;
+            re[r3] = a1r - ti; im[r3] = a1i + tr;
+        }
+    }
+}
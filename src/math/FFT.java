@@ -19,59 +19,62 @@ package math;
  *
  *  Limitations
  *  -----------
- *   -  assumes n is a power of 2
+ *   -  the recursive version assumed n is a power of 2; fft() now
+ *      accepts any n through FFTPlan (mixed-radix or Bluestein)
  *
- *   -  not the most memory efficient algorithm (because it uses
- *      an object type for representing complex numbers and because
- *      it re-allocates memory for the subarray, instead of doing
- *      in-place or reusing a single temporary array)
+ *   -  not the most memory efficient algorithm, because it uses
+ *      an object type for representing complex numbers: the input
+ *      and output arrays of Complex are copied to and from the
+ *      double[] arrays the plan works on
  *
  *  For an in-place radix 2 Cooley-Tukey FFT, see
  *  https://introcs.cs.princeton.edu/java/97data/InplaceFFT.java.html
  *
+ *  fft() now delegates to the in-place engine of FFTPlan, and keeps the
+ *  last plan of each thread so that transforming many arrays of the same
+ *  size only plans once. Code that transforms many frames should still
+ *  hold an FFTPlan and work on double[] arrays directly to avoid
+ *  allocating Complex objects.
+ *
  ******************************************************************************/
 
 public class FFT {
 
-    // compute the FFT of x[], assuming its length n is a power of 2
-    public static Complex[] fft(Complex[] x) {
-        int n = x.length;
-
-        // base case
-        if (n == 1) return new Complex[] { x[0] };
+    // the last plan used by each thread, plans owning scratch buffers
+    private static final ThreadLocal<FFTPlan> PLAN = new ThreadLocal<>();
 
-        // radix 2 Cooley-Tukey FFT
-        if (n % 2 != 0) {
-            throw new IllegalArgumentException("n is not a power of 2");
+    private static FFTPlan plan(int n) {
+        FFTPlan plan = PLAN.get();
+        if (plan == null || plan.size() != n) {
+            plan = FFTPlan.create(n);
+            PLAN.set(plan);
         }
+        return plan;
+    }
 
-        // compute FFT of even terms
-        Complex[] even = new Complex[n/2];
-        for (int k = 0; k < n/2; k++) {
-            even[k] = x[2*k];
-        }
-        Complex[] evenFFT = fft(even);
+    // compute the FFT of x[], of any length n
+    public static Complex[] fft(Complex[] x) {
+        int n = x.length;
 
-        // compute FFT of odd terms
-        Complex[] odd  = even;  // reuse the array (to avoid n log n space)
-        for (int k = 0; k < n/2; k++) {
-            odd[k] = x[2*k + 1];
+        // split real and imaginary parts for the in-place transform
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int k = 0; k < n; k++) {
+            re[k] = x[k].re();
+            im[k] = x[k].im();
         }
-        Complex[] oddFFT = fft(odd);
 
-        // combine
+        plan(n).forward(re, im);
+
         Complex[] y = new Complex[n];
-        for (int k = 0; k < n/2; k++) {
-            double kth = -2 * k * Math.PI / n;
-            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-            y[k]       = evenFFT[k].plus (wk.times(oddFFT[k]));
-            y[k + n/2] = evenFFT[k].minus(wk.times(oddFFT[k]));
+        for (int k = 0; k < n; k++) {
+            y[k] = new Complex(re[k], im[k]);
         }
         return y;
     }
 
 
-    // compute the inverse FFT of x[], assuming its length n is a power of 2
+    // compute the inverse FFT of x[], of any length n
     public static Complex[] ifft(Complex[] x) {
         int n = x.length;
         Complex[] y = new Complex[n];
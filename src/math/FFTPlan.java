@@ -0,0 +1,71 @@
+package math;
+
+/** A precomputed, reusable Fourier transform of a fixed size working in place on split
+ * real/imaginary double arrays. Create one plan per transform size and reuse it for every
+ * frame: once the plan exists, forward and inverse transforms do not allocate.
+ *
+ * Any size is supported: powers of 2 use an in-place radix-2/4 engine, sizes whose prime factors
+ * are 2, 3, 5 or 7 (e.g. 441 or 960) use mixed-radix kernels, and other sizes fall back to
+ * Bluestein's algorithm, all in O(n log n). Plans may own scratch buffers, so use one plan per
+ * thread.
+ *
+ * Same sign convention as {@link FFT}: the forward transform uses w = e^(-2 pi i / n) and the
+ * inverse transform is scaled by 1/n.
+ *
+ * Example of use:
+ * FFTPlan plan = FFTPlan.create(1024);
+ * plan.forward(re, im); // re and im now hold the spectrum
+ */
+public abstract class FFTPlan {
+    protected final int n;
+
+    protected FFTPlan(int n) {
+        this.n = n;
+    }
+
+    /** Returns a plan for transforms of length n, picking the fastest algorithm for that size.
+     * @param n the transform size, must be positive */
+    public static FFTPlan create(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        if ((n & (n - 1)) == 0) {
+            return new Radix2FFTPlan(n);
+        }
+        int[] radices = MixedRadixFFTPlan.factor(n);
+        if (radices != null) {
+            return new MixedRadixFFTPlan(n, radices);
+        }
+        return new BluesteinFFTPlan(n);
+    }
+
+    /** @return the transform size */
+    public int size() {
+        return n;
+    }
+
+    /** Computes the forward transform of re[0..n-1] + i*im[0..n-1] in place. */
+    public void forward(double[] re, double[] im) {
+        forward(re, 0, im, 0);
+    }
+
+    /** Computes the inverse transform of re[0..n-1] + i*im[0..n-1] in place. */
+    public void inverse(double[] re, double[] im) {
+        inverse(re, 0, im, 0);
+    }
+
+    /** Computes the forward transform of n values starting at the given offsets, in place. */
+    public abstract void forward(double[] re, int reOff, double[] im, int imOff);
+
+    /** Computes the inverse transform of n values starting at the given offsets, in place. */
+    public void inverse(double[] re, int reOff, double[] im, int imOff) {
+        // swapping real and imaginary parts turns the forward transform into an unscaled inverse
+        forward(im, imOff, re, reOff);
+
+        double scale = 1.0 / n;
+        for (int i = 0; i < n; i++) {
+            re[reOff + i] *= scale;
+            im[imOff + i] *= scale;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package math;
+
+/** Single precision version of {@link RealFFTPlan}, for power of 2 sizes.
+ *
+ * Transforms do not allocate, but the plan owns scratch buffers, so one plan should be used per
+ * thread.
+ *
+ * Example of use:
+ * FloatRealFFTPlan plan = FloatRealFFTPlan.create(1024);
+ * float[] re = new float[plan.spectrumSize()], im = new float[plan.spectrumSize()];
+ * plan.forward(samples, re, im);
+ */
+public final class FloatRealFFTPlan {
+    private final int n;
+    private final int half;
+    private final FloatFFTPlan halfPlan;
+    private final float[] cos; // cos(-2 pi k / n) for k <= n/4
+    private final float[] sin; // sin(-2 pi k / n) for k <= n/4
+    private final float[] scratchRe, scratchIm;
+
+    private FloatRealFFTPlan(int n) {
+        this.n = n;
+        this.half = n / 2;
+        this.halfPlan = FloatFFTPlan.create(half);
+
+        cos = new float[half / 2 + 1];
+        sin = new float[half / 2 + 1];
+        for (int k = 0; k <= half / 2; k++) {
+            double kth = -2 * k * Math.PI / n;
+            cos[k] = (float) Math.cos(kth);
+            sin[k] = (float) Math.sin(kth);
+        }
+
+        scratchRe = new float[half];
+        scratchIm = new float[half];
+    }
+
+    /** Returns a plan for real transforms of length n.
+     * @param n the number of real samples, a power of 2 of at least 2 */
+    public static FloatRealFFTPlan create(int n) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("n must be a power of 2");
+        }
+        return new FloatRealFFTPlan(n);
+    }
+
+    /** @return the number of real samples */
+    public int size() {
+        return n;
+    }
+
+    /** @return the number of non-redundant spectrum bins, n/2+1 */
+    public int spectrumSize() {
+        return half + 1;
+    }
+
+    /** Computes the spectrum bins X[0..n/2] of the real signal in[0..n-1].
+     * @param re receives the real part of the bins, length must not be lower than n/2+1
+     * @param im receives the imaginary part of the bins, length must not be lower than n/2+1 */
+    public void forward(float[] in, float[] re, float[] im) {
+        for (int j = 0; j < half; j++) {
+            re[j] = in[2 * j];
+            im[j] = in[2 * j + 1];
+        }
+
+        halfPlan.forward(re, im);
+
+        float z0r = re[0], z0i = im[0];
+        re[0] = z0r + z0i;    im[0] = 0;
+        re[half] = z0r - z0i; im[half] = 0;
+
+        for (int k = 1; k <= half / 2; k++) {
+            int m = half - k;
+            float ar = re[k], ai = im[k];
+            float br = re[m], bi = im[m];
+
+            float er = 0.5f * (ar + br), ei = 0.5f * (ai - bi);
+            float or = 0.5f * (ai + bi), oi = -0.5f * (ar - br);
+
+            float tr = cos[k] * or - sin[k] * oi;
+            float ti = cos[k] * oi + sin[k] * or;
+
+            re[k] = er + tr;  im[k] = ei + ti;
+            re[m] = er - tr;  im[m] = ti - ei;
+        }
+    }
+
+    /** Computes the real signal out[0..n-1] from its spectrum bins X[0..n/2], scaled by 1/n
+     * so that inverse(forward(x)) == x. The imaginary parts of X[0] and X[n/2] are ignored. */
+    public void inverse(float[] re, float[] im, float[] out) {
+        float[] zr = scratchRe, zi = scratchIm;
+
+        zr[0] = 0.5f * (re[0] + re[half]);
+        zi[0] = 0.5f * (re[0] - re[half]);
+
+        for (int k = 1; k <= half / 2; k++) {
+            int m = half - k;
+            float ar = re[k], ai = im[k];
+            float br = re[m], bi = im[m];
+
+            float er = 0.5f * (ar + br), ei = 0.5f * (ai - bi);
+            float dr = 0.5f * (ar - br), di = 0.5f * (ai + bi);
+
+            float or = dr * cos[k] + di * sin[k];
+            float oi = di * cos[k] - dr * sin[k];
+
+            zr[k] = er - oi;  zi[k] = ei + or;
+            zr[m] = er + oi;  zi[m] = or - ei;
+        }
+
+        halfPlan.inverse(zr, zi);
+
+        for (int j = 0; j < half; j++) {
+            out[2 * j] = zr[j];
+            out[2 * j + 1] = zi[j];
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package math;
+
+import java.util.Arrays;
+
+/** Self-sorting (Stockham) mixed-radix FFT for sizes whose prime factors are all 2, 3, 5 or 7.
+ *
+ * Each pass splits the remaining length by one radix and writes the result to the other buffer,
+ * so the output ends up in natural order without any bit-reversal permutation. Passes alternate
+ * between the caller's arrays and a scratch buffer owned by the plan, which is why a plan must not
+ * be shared between threads. */
+final class MixedRadixFFTPlan extends FFTPlan {
+    private final int[] radices;
+    private final double[] cos; // cos(-2 pi k / n) for k < n
+    private final double[] sin; // sin(-2 pi k / n) for k < n
+    private final double[] scratchRe, scratchIm;
+
+    // generic radix butterfly tables and buffers (used for radix 7)
+    private final double[][] radixCos = new double[8][];
+    private final double[][] radixSin = new double[8][];
+    private final double[] aRe = new double[7], aIm = new double[7];
+
+    MixedRadixFFTPlan(int n, int[] radices) {
+        super(n);
+        this.radices = radices;
+
+        cos = new double[n];
+        sin = new double[n];
+        for (int k = 0; k < n; k++) {
+            double kth = -2 * k * Math.PI / n;
+            cos[k] = Math.cos(kth);
+            sin[k] = Math.sin(kth);
+        }
+
+        for (int r : radices) {
+            if (r > 5 && radixCos[r] == null) {
+                radixCos[r] = new double[r];
+                radixSin[r] = new double[r];
+                for (int k = 0; k < r; k++) {
+                    radixCos[r][k] = Math.cos(-2 * k * Math.PI / r);
+                    radixSin[r][k] = Math.sin(-2 * k * Math.PI / r);
+                }
+            }
+        }
+
+        scratchRe = new double[n];
+        scratchIm = new double[n];
+    }
+
+    /** Splits n into radices 4, 2, 3, 5 and 7.
+     * @return the radices, or null if n has a prime factor greater than 7 */
+    static int[] factor(int n) {
+        int[] factors = new int[32];
+        int count = 0;
+        while (n % 4 == 0) { factors[count++] = 4; n /= 4; }
+        for (int p : new int[] {2, 3, 5, 7}) {
+            while (n % p == 0) { factors[count++] = p; n /= p; }
+        }
+        return n == 1 ? Arrays.copyOf(factors, count) : null;
+    }
+
+    @Override
+    public void forward(double[] re, int reOff, double[] im, int imOff) {
+        double[] xr = re, xi = im, yr = scratchRe, yi = scratchIm;
+        int xrOff = reOff, xiOff = imOff, yrOff = 0, yiOff = 0;
+
+        int s = 1;     // stride, product of the radices already processed
+        int len = n;   // length of the sub-transforms left to compute
+        for (int r : radices) {
+            int m = len / r;
+            switch (r) {
+                case 2: pass2(xr, xrOff, xi, xiOff, yr, yrOff, yi, yiOff, m, s); break;
+                case 3: pass3(xr, xrOff, xi, xiOff, yr, yrOff, yi, yiOff, m, s); break;
+                case 4: pass4(xr, xrOff, xi, xiOff, yr, yrOff, yi, yiOff, m, s); break;
+                case 5: pass5(xr, xrOff, xi, xiOff, yr, yrOff, yi, yiOff, m, s); break;
+                default: passGeneric(r, xr, xrOff, xi, xiOff, yr, yrOff, yi, yiOff, m, s); break;
+            }
+
+            // swap source and destination
+            double[] t = xr; xr = yr; yr = t;
+            t = xi; xi = yi; yi = t;
+            int o = xrOff; xrOff = yrOff; yrOff = o;
+            o = xiOff; xiOff = yiOff; yiOff = o;
+
+            s *= r;
+            len = m;
+        }
+
+        if (xr != re) {
+            System.arraycopy(xr, 0, re, reOff, n);
+            System.arraycopy(xi, 0, im, imOff, n);
+        }
+    }
+
+    // stores y multiplied by the twiddle factor w^k at index i of the destination
+    private void store(double[] yr, double[] yi, int ir, int ii, double vr, double vi, int k) {
+        double wr = cos[k], wi = sin[k];
+        yr[ir] = vr * wr - vi * wi;
+        yi[ii] = vr * wi + vi * wr;
+    }
+
+    private void pass2(double[] xr, int xrOff, double[] xi, int xiOff,
+                       double[] yr, int yrOff, double[] yi, int yiOff, int m, int s) {
+        for (int p = 0; p < m; p++) {
+            int w = p * s;
+            for (int q = 0; q < s; q++) {
+                int a = q + s * p, b = a + s * m;
+                double a0r = xr[xrOff + a], a0i = xi[xiOff + a];
+                double a1r = xr[xrOff + b], a1i = xi[xiOff + b];
+
+                int o = q + s * 2 * p;
+                yr[yrOff + o] = a0r + a1r; yi[yiOff + o] = a0i + a1i;
+                store(yr, yi, yrOff + o + s, yiOff + o + s, a0r - a1r, a0i - a1i, w);
+            }
+        }
+    }
+
+    private void pass3(double[] xr, int xrOff, double[] xi, int xiOff,
+                       double[] yr, int yrOff, double[] yi, int yiOff, int m, int s) {
+        final double c = -0.5, sn = -Math.sqrt(0.75); // w_3 = e^(-2 pi i / 3)
+        for (int p = 0; p < m; p++) {
+            int w = p * s;
+            for (int q = 0; q < s; q++) {
+                int i0 = q + s * p, i1 = i0 + s * m, i2 = i1 + s * m;
+                double a0r = xr[xrOff + i0], a0i = xi[xiOff + i0];
+                double a1r = xr[xrOff + i1], a1i = xi[xiOff + i1];
+                double a2r = xr[xrOff + i2], a2i = xi[xiOff + i2];
+
+                double tr = a1r + a2r, ti = a1i + a2i;
+                double mr = a0r + c * tr, mi = a0i + c * ti;
+                double dr = sn * (a1r - a2r), di = sn * (a1i - a2i);
+
+                int o = q + s * 3 * p;
+                yr[yrOff + o] = a0r + tr; yi[yiOff + o] = a0i + ti;
+                store(yr, yi, yrOff + o + s, yiOff + o + s, mr - di, mi + dr, w);
+                store(yr, yi, yrOff + o + 2 * s, yiOff + o + 2 * s, mr + di, mi - dr, 2 * w);
+            }
+        }
+    }
+
+    private void pass4(double[] xr, int xrOff, double[] xi, int xiOff,
+                       double[] yr, int yrOff, double[] yi, int yiOff, int m, int s) {
+        for (int p = 0; p < m; p++) {
+            int w = p * s;
+            for (int q = 0; q < s; q++) {
+                int i0 = q + s * p, i1 = i0 + s * m, i2 = i1 + s * m, i3 = i2 + s * m;
+                double t0r = xr[xrOff + i0] + xr[xrOff + i2], t0i = xi[xiOff + i0] + xi[xiOff + i2];
+                double t1r = xr[xrOff + i0] - xr[xrOff + i2], t1i = xi[xiOff + i0] - xi[xiOff + i2];
+                double t2r = xr[xrOff + i1] + xr[xrOff + i3], t2i = xi[xiOff + i1] + xi[xiOff + i3];
+                double t3r = xr[xrOff + i1] - xr[xrOff + i3], t3i = xi[xiOff + i1] - xi[xiOff + i3];
+
+                int o = q + s * 4 * p;
+                yr[yrOff + o] = t0r + t2r; yi[yiOff + o] = t0i + t2i;
+                store(yr, yi, yrOff + o + s, yiOff + o + s, t1r + t3i, t1i - t3r, w);
+                store(yr, yi, yrOff + o + 2 * s, yiOff + o + 2 * s, t0r - t2r, t0i - t2i, 2 * w);
+                store(yr, yi, yrOff + o + 3 * s, yiOff + o + 3 * s, t1r - t3i, t1i + t3r, 3 * w);
+            }
+        }
+    }
+
+    private void pass5(double[] xr, int xrOff, double[] xi, int xiOff,
+                       double[] yr, int yrOff, double[] yi, int yiOff, int m, int s) {
+        final double c1 = Math.cos(2 * Math.PI / 5), c2 = Math.cos(4 * Math.PI / 5);
+        final double s1 = Math.sin(2 * Math.PI / 5), s2 = Math.sin(4 * Math.PI / 5);
+        for (int p = 0; p < m; p++) {
+            int w = p * s;
+            for (int q = 0; q < s; q++) {
+                int i0 = q + s * p, i1 = i0 + s * m, i2 = i1 + s * m, i3 = i2 + s * m, i4 = i3 + s * m;
+                double a0r = xr[xrOff + i0], a0i = xi[xiOff + i0];
+                double b1r = xr[xrOff + i1] + xr[xrOff + i4], b1i = xi[xiOff + i1] + xi[xiOff + i4];
+                double d1r = xr[xrOff + i1] - xr[xrOff + i4], d1i = xi[xiOff + i1] - xi[xiOff + i4];
+                double b2r = xr[xrOff + i2] + xr[xrOff + i3], b2i = xi[xiOff + i2] + xi[xiOff + i3];
+                double d2r = xr[xrOff + i2] - xr[xrOff + i3], d2i = xi[xiOff + i2] - xi[xiOff + i3];
+
+                double m1r = a0r + c1 * b1r + c2 * b2r, m1i = a0i + c1 * b1i + c2 * b2i;
+                double m2r = a0r + c2 * b1r + c1 * b2r, m2i = a0i + c2 * b1i + c1 * b2i;
+                double n1r = s1 * d1r + s2 * d2r, n1i = s1 * d1i + s2 * d2i;
+                double n2r = s2 * d1r - s1 * d2r, n2i = s2 * d1i - s1 * d2i;
+
+                // y1 = m1 - i*n1, y4 = m1 + i*n1, y2 = m2 - i*n2, y3 = m2 + i*n2
+                int o = q + s * 5 * p;
+                yr[yrOff + o] = a0r + b1r + b2r; yi[yiOff + o] = a0i + b1i + b2i;
+                store(yr, yi, yrOff + o + s, yiOff + o + s, m1r + n1i, m1i - n1r, w);
+                store(yr, yi, yrOff + o + 2 * s, yiOff + o + 2 * s, m2r + n2i, m2i - n2r, 2 * w);
+                store(yr, yi, yrOff + o + 3 * s, yiOff + o + 3 * s, m2r - n2i, m2i + n2r, 3 * w);
+                store(yr, yi, yrOff + o + 4 * s, yiOff + o + 4 * s, m1r - n1i, m1i + n1r, 4 * w);
+            }
+        }
+    }
+
+    // plain O(r^2) butterfly for the remaining radices
+    private void passGeneric(int r, double[] xr, int xrOff, double[] xi, int xiOff,
+                             double[] yr, int yrOff, double[] yi, int yiOff, int m, int s) {
+        double[] rc = radixCos[r], rs = radixSin[r];
+        for (int p = 0; p < m; p++) {
+            int w = p * s;
+            for (int q = 0; q < s; q++) {
+                for (int t = 0; t < r; t++) {
+                    int i = q + s * (p + t * m);
+                    aRe[t] = xr[xrOff + i];
+                    aIm[t] = xi[xiOff + i];
+                }
+
+                int o = q + s * r * p;
+                for (int u = 0; u < r; u++) {
+                    double sr = 0, si = 0;
+                    for (int t = 0, k = 0; t < r; t++, k = (k + u) % r) {
+                        sr += aRe[t] * rc[k] - aIm[t] * rs[k];
+                        si += aRe[t] * rs[k] + aIm[t] * rc[k];
+                    }
+                    store(yr, yi, yrOff + o + u * s, yiOff + o + u * s, sr, si, u * w);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Multi-threaded FFT for very large power of 2 sizes, meant for offline analysis of whole
+ * recordings (2^20 points and more).
+ *
+ * Uses the four-step decomposition n = n1 * n2: the input is seen as an n1 x n2 matrix, the n2
+ * columns are transformed (length n1), multiplied by twiddle factors, then the n1 rows are
+ * transformed (length n2). Every step works on contiguous rows thanks to cache-blocked
+ * transposes, and rows and transpose tiles are spread over a ForkJoinPool.
+ *
+ * The plan owns a scratch buffer of n values and must not be used by two threads at once.
+ *
+ * Example of use:
+ * FFTPlan plan = ParallelFFTPlan.create(1 << 22);
+ * plan.forward(re, im);
+ */
+public final class ParallelFFTPlan extends FFTPlan {
+    /** Default size from which {@link #create(int)} switches to the parallel algorithm. */
+    public static final int DEFAULT_THRESHOLD = 1 << 18;
+
+    private static final int BLOCK = 64; // transpose tile size (64x64 doubles = 32 KB per array)
+
+    private final ForkJoinPool pool;
+    private final int n1, n2;
+    private final FFTPlan plan1, plan2;          // row plans, stateless and shared by the workers
+    private final double[] lowCos, lowSin;       // w^k for k < lowSize
+    private final double[] highCos, highSin;     // w^(k * lowSize) for k < n / lowSize
+    private final int lowBits;
+    private final double[] scratchRe, scratchIm;
+
+    private ParallelFFTPlan(int n, ForkJoinPool pool) {
+        super(n);
+        this.pool = pool;
+
+        int bits = Integer.numberOfTrailingZeros(n);
+        n1 = 1 << (bits / 2);
+        n2 = n / n1;
+        plan1 = FFTPlan.create(n1);
+        plan2 = FFTPlan.create(n2);
+
+        // twiddle factors w^a are built as w^(high * lowSize) * w^low to keep tables small
+        lowBits = (bits + 1) / 2;
+        int lowSize = 1 << lowBits;
+        lowCos = new double[lowSize];
+        lowSin = new double[lowSize];
+        for (int k = 0; k < lowSize; k++) {
+            double kth = -2 * Math.PI * k / n;
+            lowCos[k] = Math.cos(kth);
+            lowSin[k] = Math.sin(kth);
+        }
+        highCos = new double[n / lowSize];
+        highSin = new double[n / lowSize];
+        for (int k = 0; k < n / lowSize; k++) {
+            double kth = -2 * Math.PI * ((double) k * lowSize) / n;
+            highCos[k] = Math.cos(kth);
+            highSin[k] = Math.sin(kth);
+        }
+
+        scratchRe = new double[n];
+        scratchIm = new double[n];
+    }
+
+    /** Returns a parallel plan running on the common pool when n is at least
+     * {@link #DEFAULT_THRESHOLD}, and a sequential plan otherwise. */
+    public static FFTPlan create(int n) {
+        return create(n, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /** Returns a parallel plan when n is a power of 2 not lower than threshold, and the
+     * sequential plan of {@link FFTPlan#create(int)} otherwise.
+     * @param pool the pool running the row transforms and transposes
+     * @param threshold the smallest size worth splitting across threads */
+    public static FFTPlan create(int n, ForkJoinPool pool, int threshold) {
+        if (n >= Math.max(threshold, 4) && (n & (n - 1)) == 0) {
+            return new ParallelFFTPlan(n, pool);
+        }
+        return FFTPlan.create(n);
+    }
+
+    @Override
+    public void forward(double[] re, int reOff, double[] im, int imOff) {
+        double[] tr = scratchRe, ti = scratchIm;
+
+        // 1. columns of the n1 x n2 input become rows of tr/ti
+        transpose(re, reOff, im, imOff, tr, ti, n1, n2);
+
+        // 2. length n1 transforms, then twiddle factors w^(j2 * k1)
+        forEach(n2, 1, (lo, hi) -> {
+            for (int j2 = lo; j2 < hi; j2++) {
+                int row = j2 * n1;
+                plan1.forward(tr, row, ti, row);
+                for (int k1 = 1; k1 < n1; k1++) {
+                    int a = j2 * k1;
+                    int low = a & ((1 << lowBits) - 1), high = a >>> lowBits;
+                    double wr = highCos[high] * lowCos[low] - highSin[high] * lowSin[low];
+                    double wi = highCos[high] * lowSin[low] + highSin[high] * lowCos[low];
+                    double xr = tr[row + k1], xi = ti[row + k1];
+                    tr[row + k1] = xr * wr - xi * wi;
+                    ti[row + k1] = xr * wi + xi * wr;
+                }
+            }
+        });
+
+        // 3. back to n1 rows of length n2
+        transpose(tr, 0, ti, 0, re, reOff, im, imOff, n2, n1);
+
+        // 4. length n2 transforms
+        forEach(n1, 1, (lo, hi) -> {
+            for (int k1 = lo; k1 < hi; k1++) {
+                plan2.forward(re, reOff + k1 * n2, im, imOff + k1 * n2);
+            }
+        });
+
+        // X[k1 + n1 * k2] is at row k1, column k2: one last transpose gives natural order
+        transpose(re, reOff, im, imOff, tr, ti, n1, n2);
+        forEach(n, 1 << 14, (lo, hi) -> {
+            System.arraycopy(tr, lo, re, reOff + lo, hi - lo);
+            System.arraycopy(ti, lo, im, imOff + lo, hi - lo);
+        });
+    }
+
+    // dst (cols x rows) = transpose of src (rows x cols), one BLOCK x BLOCK tile at a time
+    private void transpose(double[] srcRe, int srcReOff, double[] srcIm, int srcImOff,
+                           double[] dstRe, double[] dstIm, int rows, int cols) {
+        transpose(srcRe, srcReOff, srcIm, srcImOff, dstRe, 0, dstIm, 0, rows, cols);
+    }
+
+    private void transpose(double[] srcRe, int srcReOff, double[] srcIm, int srcImOff,
+                           double[] dstRe, int dstReOff, double[] dstIm, int dstImOff, int rows, int cols) {
+        int block = Math.min(BLOCK, Math.min(rows, cols));
+        int rowTiles = rows / block;
+        forEach(rowTiles, 1, (lo, hi) -> {
+            for (int r0 = lo * block; r0 < hi * block; r0 += block) {
+                for (int c0 = 0; c0 < cols; c0 += block) {
+                    for (int r = r0; r < r0 + block; r++) {
+                        for (int c = c0; c < c0 + block; c++) {
+                            dstRe[dstReOff + c * rows + r] = srcRe[srcReOff + r * cols + c];
+                            dstIm[dstImOff + c * rows + r] = srcIm[srcImOff + r * cols + c];
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /** A range [lo, hi) of independent work items. */
+    private interface RangeTask {
+        void run(int lo, int hi);
+    }
+
+    // runs task over [0, count) on the pool, splitting down to ranges of grain items
+    private void forEach(int count, int grain, RangeTask task) {
+        pool.invoke(new RangeAction(task, 0, count, Math.max(grain, count / (8 * pool.getParallelism()))));
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class RangeAction extends RecursiveAction {
+        private final RangeTask task;
+        private final int lo, hi, grain;
+
+        RangeAction(RangeTask task, int lo, int hi, int grain) {
+            this.task = task;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                task.run(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new RangeAction(task, lo, mid, grain), new RangeAction(task, mid, hi, grain));
+            }
+        }
+    }
+}
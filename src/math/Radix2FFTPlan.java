@@ -0,0 +1,80 @@
+package math;
+
+/** Iterative in-place Cooley-Tukey FFT for power of 2 sizes.
+ *
+ * The input is permuted in bit-reversed order, then combined with radix-4 passes (two radix-2
+ * stages fused together) plus one radix-2 pass when log2(n) is odd. Twiddle factors and the
+ * bit-reversal permutation are computed once in the constructor; each radix-4 pass gets its own
+ * contiguous twiddle tables so that the butterflies can be run by a SIMD {@link ButterflyKernel}.
+ * The plan holds no mutable state, so a single instance may be shared between threads. */
+final class Radix2FFTPlan extends FFTPlan {
+    private final int[] bitReversed; // bitReversed[i] is i with its log2(n) bits reversed
+    private final int firstM;        // length of the sub-transforms before the first radix-4 pass
+    private final double[][] w1r, w1i, w2r, w2i; // per pass twiddles w_2m^j and w_4m^j for j < m
+    private final ButterflyKernel kernel = ButterflyKernel.get();
+
+    Radix2FFTPlan(int n) {
+        super(n);
+        int bits = Integer.numberOfTrailingZeros(n);
+
+        bitReversed = new int[n];
+        for (int i = 1; i < n; i++) {
+            bitReversed[i] = Integer.reverse(i) >>> (Integer.SIZE - bits);
+        }
+
+        firstM = (bits & 1) != 0 ? 2 : 1;
+        int passes = (bits - (bits & 1)) / 2;
+        w1r = new double[passes][];
+        w1i = new double[passes][];
+        w2r = new double[passes][];
+        w2i = new double[passes][];
+        for (int pass = 0, m = firstM; pass < passes; pass++, m *= 4) {
+            w1r[pass] = new double[m];
+            w1i[pass] = new double[m];
+            w2r[pass] = new double[m];
+            w2i[pass] = new double[m];
+            for (int j = 0; j < m; j++) {
+                double kth = -2 * j * Math.PI / (2 * m);
+                w1r[pass][j] = Math.cos(kth);
+                w1i[pass][j] = Math.sin(kth);
+                kth = -2 * j * Math.PI / (4 * m);
+                w2r[pass][j] = Math.cos(kth);
+                w2i[pass][j] = Math.sin(kth);
+            }
+        }
+    }
+
+    @Override
+    public void forward(double[] re, int reOff, double[] im, int imOff) {
+        bitReverse(re, reOff, im, imOff);
+
+        if (firstM == 2) {
+            radix2Pass(re, reOff, im, imOff);
+        }
+        for (int pass = 0, m = firstM; m < n; pass++, m *= 4) {
+            kernel.radix4Pass(re, reOff, im, imOff, n, m, w1r[pass], w1i[pass], w2r[pass], w2i[pass]);
+        }
+    }
+
+    // reorder the input so that the butterflies can run in place
+    private void bitReverse(double[] re, int reOff, double[] im, int imOff) {
+        for (int i = 1; i < n; i++) {
+            int j = bitReversed[i];
+            if (i < j) {
+                double t = re[reOff + i]; re[reOff + i] = re[reOff + j]; re[reOff + j] = t;
+                t = im[imOff + i]; im[imOff + i] = im[imOff + j]; im[imOff + j] = t;
+            }
+        }
+    }
+
+    // first stage, length 2 transforms whose twiddle factor is always 1
+    private void radix2Pass(double[] re, int reOff, double[] im, int imOff) {
+        for (int i = 0; i < n; i += 2) {
+            int a = reOff + i, b = imOff + i;
+            double r0 = re[a], i0 = im[b];
+            double r1 = re[a + 1], i1 = im[b + 1];
+            re[a] = r0 + r1;     im[b] = i0 + i1;
+            re[a + 1] = r0 - r1; im[b + 1] = i0 - i1;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package math;
+
+/** A reusable Fourier transform of a fixed size for purely real signals.
+ *
+ * The spectrum of a real signal is Hermitian (X[n-k] = conj(X[k])), so only the n/2+1 bins
+ * X[0..n/2] carry information. The n real samples are packed into an n/2 point complex signal
+ * z[j] = x[2j] + i*x[2j+1] whose FFT is then split into the spectra of the even and odd samples,
+ * which roughly halves the work and the memory of a complex transform of size n.
+ *
+ * Transforms do not allocate, but the plan owns scratch buffers, so one plan should be used per
+ * thread.
+ *
+ * Example of use:
+ * RealFFTPlan plan = RealFFTPlan.create(1024);
+ * double[] re = new double[plan.spectrumSize()], im = new double[plan.spectrumSize()];
+ * plan.forward(samples, re, im);
+ */
+public final class RealFFTPlan {
+    private final int n;
+    private final int half;
+    private final FFTPlan halfPlan;
+    private final double[] cos; // cos(-2 pi k / n) for k <= n/4
+    private final double[] sin; // sin(-2 pi k / n) for k <= n/4
+    private final double[] scratchRe, scratchIm;
+
+    private RealFFTPlan(int n) {
+        this.n = n;
+        this.half = n / 2;
+        this.halfPlan = FFTPlan.create(half);
+
+        cos = new double[half / 2 + 1];
+        sin = new double[half / 2 + 1];
+        for (int k = 0; k <= half / 2; k++) {
+            double kth = -2 * k * Math.PI / n;
+            cos[k] = Math.cos(kth);
+            sin[k] = Math.sin(kth);
+        }
+
+        scratchRe = new double[half];
+        scratchIm = new double[half];
+    }
+
+    /** Returns a plan for real transforms of length n.
+     * @param n the number of real samples, must be even */
+    public static RealFFTPlan create(int n) {
+        if (n < 2 || (n & 1) != 0) {
+            throw new IllegalArgumentException("n must be even");
+        }
+        return new RealFFTPlan(n);
+    }
+
+    /** @return the number of real samples */
+    public int size() {
+        return n;
+    }
+
+    /** @return the number of non-redundant spectrum bins, n/2+1 */
+    public int spectrumSize() {
+        return half + 1;
+    }
+
+    /** Computes the spectrum bins X[0..n/2] of the real signal in[0..n-1].
+     * @param re receives the real part of the bins, length must not be lower than n/2+1
+     * @param im receives the imaginary part of the bins, length must not be lower than n/2+1 */
+    public void forward(double[] in, double[] re, double[] im) {
+        // pack even samples as real part and odd samples as imaginary part
+        for (int j = 0; j < half; j++) {
+            re[j] = in[2 * j];
+            im[j] = in[2 * j + 1];
+        }
+
+        halfPlan.forward(re, im);
+
+        // X[0] and X[n/2] are real and both come from Z[0]
+        double z0r = re[0], z0i = im[0];
+        re[0] = z0r + z0i;    im[0] = 0;
+        re[half] = z0r - z0i; im[half] = 0;
+
+        // X[k] and X[n/2-k] are computed together from Z[k] and Z[n/2-k]
+        for (int k = 1; k <= half / 2; k++) {
+            int m = half - k;
+            double ar = re[k], ai = im[k];
+            double br = re[m], bi = im[m];
+
+            // spectra of the even samples (e) and of the odd samples (o)
+            double er = 0.5 * (ar + br), ei = 0.5 * (ai - bi);
+            double or = 0.5 * (ai + bi), oi = -0.5 * (ar - br);
+
+            double tr = cos[k] * or - sin[k] * oi;
+            double ti = cos[k] * oi + sin[k] * or;
+
+            re[k] = er + tr;  im[k] = ei + ti;
+            re[m] = er - tr;  im[m] = ti - ei;
+        }
+    }
+
+    /** Computes the real signal out[0..n-1] from its spectrum bins X[0..n/2], scaled by 1/n
+     * so that inverse(forward(x)) == x. The imaginary parts of X[0] and X[n/2] are ignored. */
+    public void inverse(double[] re, double[] im, double[] out) {
+        double[] zr = scratchRe, zi = scratchIm;
+
+        zr[0] = 0.5 * (re[0] + re[half]);
+        zi[0] = 0.5 * (re[0] - re[half]);
+
+        for (int k = 1; k <= half / 2; k++) {
+            int m = half - k;
+            double ar = re[k], ai = im[k];
+            double br = re[m], bi = im[m];
+
+            double er = 0.5 * (ar + br), ei = 0.5 * (ai - bi);
+            double dr = 0.5 * (ar - br), di = 0.5 * (ai + bi);
+
+            // o = d * conj(w^k)
+            double or = dr * cos[k] + di * sin[k];
+            double oi = di * cos[k] - dr * sin[k];
+
+            // Z[k] = e + i*o and Z[n/2-k] = conj(e) + i*conj(o)
+            zr[k] = er - oi;  zi[k] = ei + or;
+            zr[m] = er + oi;  zi[m] = or - ei;
+        }
+
+        halfPlan.inverse(zr, zi);
+
+        for (int j = 0; j < half; j++) {
+            out[2 * j] = zr[j];
+            out[2 * j + 1] = zi[j];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package math;
+
+/** Tapering windows applied to a frame before its FFT to reduce spectral leakage. */
+public enum WindowFunction {
+    RECTANGULAR(new double[] {1}),
+    HANN(new double[] {0.5, 0.5}),
+    HAMMING(new double[] {0.54, 0.46}),
+    BLACKMAN_HARRIS(new double[] {0.35875, 0.48829, 0.14128, 0.01168});
+
+    // generalized cosine window: w[i] = a0 - a1 cos(2 pi i / n) + a2 cos(4 pi i / n) - ...
+    private final double[] coefficients;
+
+    WindowFunction(double[] coefficients) {
+        this.coefficients = coefficients;
+    }
+
+    /** Fills w with the periodic window of length w.length (the usual choice for spectral analysis). */
+    public void fill(double[] w) {
+        int n = w.length;
+        for (int i = 0; i < n; i++) {
+            double value = 0;
+            for (int k = 0; k < coefficients.length; k++) {
+                double term = coefficients[k] * Math.cos(2 * Math.PI * k * i / n);
+                value += (k % 2 == 0) ? term : -term;
+            }
+            w[i] = value;
+        }
+    }
+
+    /** @return a new window of length n */
+    public double[] create(int n) {
+        double[] w = new double[n];
+        fill(w);
+        return w;
+    }
+}
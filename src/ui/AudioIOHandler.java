@@ -0,0 +1,155 @@
+package ui;
+
+import audio.AudioEffect;
+import audio.AudioIO;
+import audio.CaptureSession;
+import audio.LatencyTuner;
+import audio.SampleRingBuffer;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.ComboBox;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+public class AudioIOHandler {
+
+    private ComboBox<String> audioInputComboBox;
+    private ComboBox<String> audioOutputComboBox;
+    private CaptureSession captureSession;
+    private Supplier<? extends AudioEffect> effect;
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAME_SIZE = 1024;
+    private static final int MONITOR_RATE = 16000; // analysis needs no more than 8 kHz of bandwidth
+    // bounds of the latency chosen for the host, from FRAME_SIZE on
+    private static final double MIN_LATENCY = 0.005;
+    private static final double MAX_LATENCY = 0.2;
+
+    public AudioIOHandler(ComboBox<String> audioInputComboBox, ComboBox<String> audioOutputComboBox) {
+        this.audioInputComboBox = audioInputComboBox;
+        this.audioOutputComboBox = audioOutputComboBox;
+    }
+
+    public void populateAudioInputDevices() {
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                // Obtain available audio input devices
+                List<String> inputDevices = AudioIO.getAvailableInputDevices();
+
+                // Update UI with obtained audio input devices
+                Platform.runLater(() -> {
+                    audioInputComboBox.getItems().addAll(inputDevices);
+                });
+
+                return null;
+            }
+        };
+
+        // Start the task in a separate thread
+        new Thread(task).start();
+    }
+
+    public void populateAudioOutputDevices() {
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                // Obtain available audio output devices
+                List<String> outputDevices = AudioIO.getAvailableOutputDevices();
+
+                // Update UI with obtained audio output devices
+                Platform.runLater(() -> {
+                    audioOutputComboBox.getItems().addAll(outputDevices);
+                });
+
+                return null;
+            }
+        };
+
+        // Start the task in a separate thread
+        new Thread(task).start();
+    }
+
+    /** Starts audio processing on the selected devices. The capture session, and therefore the
+     * device lines, is kept across stop/start and only reopened when the selection changes.
+     * @param monitorBuffer receives the processed samples for display, at getMonitorRate(), read by the UI thread
+     * @return true if processing is running */
+    public boolean startAudioProcessing(SampleRingBuffer monitorBuffer) {
+        String selectedInput = audioInputComboBox.getValue();
+        String selectedOutput = audioOutputComboBox.getValue();
+
+        if (captureSession != null && (!Objects.equals(selectedInput, captureSession.getInputMixerName())
+                || !Objects.equals(selectedOutput, captureSession.getOutputMixerName()))) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (captureSession == null) {
+            captureSession = new CaptureSession(selectedInput, selectedOutput, SAMPLE_RATE, FRAME_SIZE);
+            captureSession.setLatencyTuner(new LatencyTuner(SAMPLE_RATE, MIN_LATENCY, MAX_LATENCY, FRAME_SIZE));
+        }
+
+        try {
+            captureSession.setMonitorBuffer(monitorBuffer);
+            captureSession.setMonitorRate(MONITOR_RATE);
+            captureSession.setEffect(effect);
+            captureSession.start();
+        } catch (LineUnavailableException e) {
+            System.out.println("Audio processing not started: " + e.getMessage());
+            return false;
+        }
+
+        System.out.println("Audio processing started with input: " + selectedInput + ", output: " + selectedOutput);
+        return true;
+    }
+
+    /** Stops the audio processing thread, if any, leaving the device lines open. */
+    public void stopAudioProcessing() {
+        if (captureSession != null) {
+            captureSession.stop();
+        }
+    }
+
+    /** Stops audio processing and releases the device lines. */
+    public void close() {
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+    }
+
+    /** Sets the effect applied to the processed audio, swapped in without stopping processing.
+     * @param effect builds one effect per channel, processing blocks of getFrameSize() samples, null for
+     * none. The block size adapts to the host, so the factory must read getFrameSize() each time it is called */
+    public void setEffect(Supplier<? extends AudioEffect> effect) {
+        this.effect = effect;
+        if (captureSession != null) {
+            captureSession.setEffect(effect);
+        }
+    }
+
+    public int getSampleRate() {
+        return SAMPLE_RATE;
+    }
+
+    /** @return the sample rate of the samples given to the monitor buffer */
+    public int getMonitorRate() {
+        return MONITOR_RATE;
+    }
+
+    /** @return the current block size of the audio processing, which adapts to the host */
+    public int getFrameSize() {
+        CaptureSession session = captureSession;
+        return session != null ? session.getFrameSize() : FRAME_SIZE;
+    }
+
+    public ComboBox<String> getAudioInputComboBox() {
+        return audioInputComboBox;
+    }
+
+    public ComboBox<String> getAudioOutputComboBox() {
+        return audioOutputComboBox;
+    }
+}
@@ -1,7 +1,14 @@
 package ui;
 
-import audio.AudioIO;
+import audio.AudioEffect;
 import audio.AudioSignal;
+import audio.BlockConvolver;
+import audio.ConvolutionReverb;
+import audio.EffectChain;
+import audio.GainEffect;
+import audio.Biquad;
+import audio.ParametricEqualizer;
+import audio.SampleRingBuffer;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Group;
@@ -11,18 +18,25 @@ import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
-import audio.AudioIOHandler;
+
+import java.util.Random;
 
 public class Main extends Application {
 
     private AudioIOHandler audioIOHandler;
     private boolean audioProcessingOn = false;
 
+    // processed samples published by the audio thread, drained by the AnimationTimer
+    private final SampleRingBuffer monitorBuffer = new SampleRingBuffer(1 << 16);
+    private final double[] drainBuffer = new double[monitorBuffer.getCapacity()];
+    private final AudioSignal displaySignal = new AudioSignal(1024);
+
     /* Terminal command to run in application configuration (Current Application>Edit Configuration):
     >>> cd src
-    >>> --module-path C:\Users\olire\Documents\Java\javafx-libs\javafx-sdk-21.0.1\lib --add-modules ALL-MODULE-PATH
+    >>> --module-path C:\Users\olire\Documents\Java\javafx-libs\javafx-sdk-21.0.1\lib --add-modules ALL-MODULE-PATH --add-modules jdk.incubator.vector
 
     Note: You must adapt the path of the library to your local library to run this Application.
+    The jdk.incubator.vector module enables the SIMD FFT kernels; without it the scalar ones are used.
 
     Old (runner project):
     --module-path "C:\Users\olire\Documents\Java\javafx-libs\javafx-sdk-21.0.1\lib" --add-modules javafx.controls
@@ -68,15 +82,26 @@ public class Main extends Application {
         Button startButton = new Button("Start");
         Button stopButton = new Button("Stop");
 
+        ComboBox<String> effectComboBox = new ComboBox<>();
+        effectComboBox.getItems().addAll(EFFECTS);
+        effectComboBox.getSelectionModel().selectFirst();
+
         ToolBar toolbar = new ToolBar(startButton, stopButton, new Separator());
 
         toolbar.getItems().addAll(
                 new Label("Input device:"), audioIOHandler.getAudioInputComboBox(),
                 new Separator(),
-                new Label("Output device:"), audioIOHandler.getAudioOutputComboBox());
+                new Label("Output device:"), audioIOHandler.getAudioOutputComboBox(),
+                new Separator(),
+                new Label("Effect:"), effectComboBox);
 
         startButton.setOnAction(event -> startAudioProcessing());
         stopButton.setOnAction(event -> stopAudioProcessing());
+        // new chains are built for each selection, one per channel, and swapped in while the audio keeps running
+        effectComboBox.setOnAction(event -> {
+            String effect = effectComboBox.getValue();
+            audioIOHandler.setEffect(() -> createEffect(effect));
+        });
 
         return toolbar;
     }
@@ -96,34 +121,92 @@ public class Main extends Application {
      * @brief Starts the audio processing.
      */
     private void startAudioProcessing() {
-        audioIOHandler.startAudioProcessing();
-        audioProcessingOn = true;
-
-        AudioIO.setAudioInputLine(AudioIO.obtainAudioInput(
-                audioIOHandler.getAudioInputComboBox().getSelectionModel().getSelectedItem(),
-                44100));
-
-        AudioIO.setAudioOutputLine(AudioIO.obtainAudioOutput(
-                audioIOHandler.getAudioOutputComboBox().getSelectionModel().getSelectedItem(),
-                44100));
-
-        System.out.println("Audio processing started.");
+        // The device lines are opened once and kept by the capture session
+        audioProcessingOn = audioIOHandler.startAudioProcessing(monitorBuffer);
     }
 
     /**
      * @brief Stops the audio processing.
      */
     private void stopAudioProcessing() {
-        // Stop audio processing using AudioIOHandler (add relevant method in AudioIOHandler)
-        // audioIOHandler.stopAudioProcessing();
+        audioIOHandler.stopAudioProcessing();
         audioProcessingOn = false;
         System.out.println("Audio processing stopped.");
     }
 
+    /** Releases the audio devices when the application exits. */
+    @Override
+    public void stop() {
+        if (audioIOHandler != null) {
+            audioIOHandler.close();
+        }
+    }
+
+    private static final String[] EFFECTS = {"None", "Gain -12 dB", "Equalizer", "Low-pass 1 kHz", "Reverb", "Low-pass + reverb"};
+
+    /**
+     * @brief Builds a new effect chain for one of the EFFECTS names.
+     * @return AudioEffect processing blocks of the audio frame size
+     */
+    private AudioEffect createEffect(String name) {
+        int frameSize = audioIOHandler.getFrameSize();
+        int sampleRate = audioIOHandler.getSampleRate();
+        switch (name) {
+            case "Gain -12 dB":
+                return new EffectChain(new GainEffect(-12));
+            case "Equalizer":
+                return new EffectChain(equalizer(sampleRate));
+            case "Low-pass 1 kHz":
+                return new EffectChain(lowPass(1000, sampleRate, frameSize));
+            case "Reverb":
+                return new EffectChain(syntheticReverb(sampleRate, frameSize));
+            case "Low-pass + reverb":
+                return new EffectChain(lowPass(1000, sampleRate, frameSize), syntheticReverb(sampleRate, frameSize));
+            default:
+                return new EffectChain();
+        }
+    }
+
+    // rumble filter, warmer lows, less harshness and a bit of air
+    private static AudioEffect equalizer(int sampleRate) {
+        ParametricEqualizer eq = new ParametricEqualizer(4, sampleRate);
+        eq.setBand(0, Biquad.Type.HIGH_PASS, 60, 0.707, 0);
+        eq.setBand(1, Biquad.Type.LOW_SHELF, 200, 0.707, 4);
+        eq.setBand(2, Biquad.Type.PEAKING, 3000, 1.5, -3);
+        eq.setBand(3, Biquad.Type.HIGH_SHELF, 8000, 0.707, 2);
+        return eq;
+    }
+
+    // Hann windowed sinc FIR filter
+    private static AudioEffect lowPass(double cutoff, int sampleRate, int frameSize) {
+        int taps = 255;
+        double[] filter = new double[taps];
+        double fc = cutoff / sampleRate;
+        for (int i = 0; i < taps; i++) {
+            double x = i - (taps - 1) / 2.0;
+            double sinc = x == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * x) / (Math.PI * x);
+            filter[i] = sinc * (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (taps - 1)));
+        }
+        return new BlockConvolver(filter, frameSize, BlockConvolver.Mode.OVERLAP_SAVE);
+    }
+
+    // exponentially decaying noise, a rough 1.5 second hall
+    private static AudioEffect syntheticReverb(int sampleRate, int frameSize) {
+        double[] impulseResponse = new double[sampleRate * 3 / 2];
+        Random random = new Random(1);
+        for (int i = 0; i < impulseResponse.length; i++) {
+            impulseResponse[i] = random.nextGaussian() * Math.exp(-6.9 * i / impulseResponse.length);
+        }
+        ConvolutionReverb reverb = new ConvolutionReverb(impulseResponse, frameSize);
+        reverb.setMix(0.3);
+        return reverb;
+    }
+
     private Node createMainContent() {
         // Create instances of your UI components
         SignalView signalView = new SignalView();
-        Spectrogram spectrogram = new Spectrogram();
+        // the monitored samples arrive at 16 kHz: 128 ms frames, a column every 16 ms
+        Spectrogram spectrogram = new Spectrogram(2048, 256);
         VuMeter vuMeter = new VuMeter();
 
         // Create a layout to arrange the UI components
@@ -133,31 +216,30 @@ public class Main extends Application {
         audioIOHandler.getAudioInputComboBox().getSelectionModel().selectFirst();
         audioIOHandler.getAudioOutputComboBox().getSelectionModel().selectFirst();
 
-        // We initialize the global audio I/O Lines
-        AudioIO.setAudioInputLine(AudioIO.obtainAudioInput(
-                audioIOHandler.getAudioInputComboBox().getSelectionModel().getSelectedItem(),
-                44100));
-        AudioIO.setAudioOutputLine(AudioIO.obtainAudioOutput(
-                audioIOHandler.getAudioOutputComboBox().getSelectionModel().getSelectedItem(),
-                44100));
-
         // Attach AnimationTimers to update the views periodically
         AnimationTimer animationTimer = new AnimationTimer() {
             @Override
             public void handle(long now) {
                 if (audioProcessingOn) {
-                    // Get the current audio signal
-                    AudioSignal audioSignal = audioIOHandler.getAudioSignal();
+                    // Take everything the audio thread published since the last frame, without blocking
+                    int count = monitorBuffer.read(drainBuffer, 0, drainBuffer.length);
+                    if (count == 0) return;
+
+                    // Update the spectrogram with every new sample, so that nothing is skipped
+                    spectrogram.updateSpectrogram(drainBuffer, 0, count);
+
+                    // Keep the most recent samples for the signal view and the VuMeter
+                    double[] display = displaySignal.getSampleBuffer();
+                    int keep = Math.min(count, display.length);
+                    System.arraycopy(display, keep, display, 0, display.length - keep);
+                    System.arraycopy(drainBuffer, count - keep, display, display.length - keep, keep);
 
                     // Update the signal view
-                    signalView.setAudioSignal(audioSignal);
+                    signalView.setAudioSignal(displaySignal);
                     signalView.updateData();
 
                     // Update the VuMeter
-                    vuMeter.updateVuMeter(audioSignal.getdBlevel());
-
-                    // Update the spectrogram
-                    spectrogram.updateSpectrogram(audioSignal);
+                    vuMeter.updateVuMeter(displaySignal.updatedBlevel());
                 }
             }
         };
@@ -2,82 +2,153 @@ package ui;
 
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.paint.Color;
 import audio.AudioSignal;
-import math.Complex;
-import math.FFT;
+import audio.StreamingSTFT;
+import math.WindowFunction;
 
+import java.nio.IntBuffer;
 import java.util.Arrays;
 
+/** Scrolling waterfall spectrogram: time runs from left to right, frequency from bottom to top
+ * and the magnitude of each bin is shown with a color map.
+ *
+ * Each STFT frame becomes one new column of a circular ARGB pixel buffer, and only that column
+ * is uploaded to the image with a bulk setPixels call. Redrawing the canvas then draws the image
+ * in two slices so that the oldest column is on the left. */
 public class Spectrogram extends Canvas {
     private final int spectrogramWidth = 800; // Set the width of the spectrogram
     private final int spectrogramHeight = 400; // Set the height of the spectrogram
 
+    private static final double MIN_DB = -100.0; // magnitude mapped to the first color
+    private static final double MAX_DB = 0.0;    // magnitude mapped to the last color
+    private static final int[] COLORMAP = createColormap(256);
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT = PixelFormat.getIntArgbPreInstance();
+
     private final WritableImage spectrogramImage;
     private final PixelWriter pixelWriter;
+    private final int[] pixels;   // circular ARGB buffer, spectrogramWidth columns of spectrogramHeight rows
+    private final int[] rowToBin; // first bin shown by each row, from the bottom, plus an end marker
+    private int nextColumn;       // column written by the next frame
+    private boolean dirty;
+
+    // windowed, overlapping analysis of the incoming samples
+    private final StreamingSTFT stft;
+    private final StreamingSTFT.FrameListener frameListener = this::addColumn;
 
     public Spectrogram() {
+        this(4096, 512);
+    }
+
+    /**
+     * @param fftSize the STFT frame size, giving fftSize/2 + 1 frequency bins
+     * @param hopSize the number of samples between two columns
+     */
+    public Spectrogram(int fftSize, int hopSize) {
         super();
 
-        // Create a WritableImage for the spectrogram
+        stft = new StreamingSTFT(fftSize, hopSize, WindowFunction.HANN);
+
+        // Create a WritableImage for the spectrogram, backed by the circular pixel buffer
         spectrogramImage = new WritableImage(spectrogramWidth, spectrogramHeight);
         pixelWriter = spectrogramImage.getPixelWriter();
+        pixels = new int[spectrogramWidth * spectrogramHeight];
+
+        // Spread the bins evenly over the rows (several bins per row are reduced to their maximum)
+        rowToBin = new int[spectrogramHeight + 1];
+        for (int row = 0; row <= spectrogramHeight; row++) {
+            rowToBin[row] = (int) ((long) row * stft.getBins() / spectrogramHeight);
+        }
 
         // Set the size of the Canvas
         setWidth(spectrogramWidth);
         setHeight(spectrogramHeight);
 
-        // Initialize the image with a default color (e.g., white)
         clearSpectrogram();
     }
 
-    /** Clear the spectrogram by filling it with a default color (e.g., white) */
+    /** Clear the spectrogram by filling it with the color of silence */
     public void clearSpectrogram() {
-        GraphicsContext gc = getGraphicsContext2D();
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, spectrogramWidth, spectrogramHeight);
+        Arrays.fill(pixels, COLORMAP[0]);
+        pixelWriter.setPixels(0, 0, spectrogramWidth, spectrogramHeight, PIXEL_FORMAT, pixels, 0, spectrogramWidth);
+        nextColumn = 0;
+        dirty = true;
+        redraw();
     }
 
     /**
-     * Update the spectrogram based on the Fourier transform of the given audio signal.
+     * Update the spectrogram with the new samples of the given audio signal.
      * @param audioSignal The audio signal to compute the spectrogram from.
      */
     public void updateSpectrogram(AudioSignal audioSignal) {
-        // Clear the spectrogram before updating
-        clearSpectrogram();
-
-        // Get the sample buffer from the audio signal
         double[] sampleBuffer = audioSignal.getSampleBuffer();
+        updateSpectrogram(sampleBuffer, 0, sampleBuffer.length);
+    }
 
-        // Compute the FFT of the audio signal
-        Complex[] fftResult = FFT.fft(toComplexArray(sampleBuffer));
+    /**
+     * Update the spectrogram with new samples of the stream.
+     * @param samples  The buffer holding the new samples.
+     * @param offset   The index of the first new sample.
+     * @param length   The number of new samples.
+     */
+    public void updateSpectrogram(double[] samples, int offset, int length) {
+        // Feed the new samples to the STFT, each completed frame adds a column
+        stft.push(samples, offset, length, frameListener);
+        redraw();
+    }
 
-        // Display the amplitude (absolute value) of the FFT coefficients as vertical lines
-        for (int i = 0; i < spectrogramWidth; i++) {
-            double magnitude = fftResult[i].abs();
-            drawVerticalLine(i, magnitude);
+    // converts one STFT frame into a column of the circular buffer and uploads it
+    private void addColumn(double[] magnitudes) {
+        int x = nextColumn;
+        for (int row = 0; row < spectrogramHeight; row++) {
+            double max = 0;
+            for (int bin = rowToBin[row]; bin < Math.max(rowToBin[row + 1], rowToBin[row] + 1); bin++) {
+                max = Math.max(max, magnitudes[bin]);
+            }
+            double dB = max > 0 ? 20 * Math.log10(max) : MIN_DB;
+            int index = (int) ((dB - MIN_DB) / (MAX_DB - MIN_DB) * (COLORMAP.length - 1));
+            index = Math.max(0, Math.min(COLORMAP.length - 1, index));
+
+            // row 0 is the lowest frequency, drawn at the bottom of the image
+            pixels[(spectrogramHeight - 1 - row) * spectrogramWidth + x] = COLORMAP[index];
         }
+
+        pixelWriter.setPixels(x, 0, 1, spectrogramHeight, PIXEL_FORMAT, pixels, x, spectrogramWidth);
+        nextColumn = (x + 1) % spectrogramWidth;
+        dirty = true;
     }
 
-    /**
-     * Draw a vertical line on the spectrogram at the specified x-coordinate with the given magnitude.
-     * @param x        The x-coordinate of the vertical line.
-     * @param magnitude The magnitude of the line (height).
-     */
-    private void drawVerticalLine(int x, double magnitude) {
-        for (int y = 0; y < magnitude && y < spectrogramHeight; y++) {
-            pixelWriter.setColor(x, spectrogramHeight - y - 1, Color.BLACK);
+    // draws the circular image with the oldest column on the left
+    private void redraw() {
+        if (!dirty) return;
+        dirty = false;
+
+        GraphicsContext gc = getGraphicsContext2D();
+        int oldest = spectrogramWidth - nextColumn;
+        gc.drawImage(spectrogramImage, nextColumn, 0, oldest, spectrogramHeight, 0, 0, oldest, spectrogramHeight);
+        if (nextColumn > 0) {
+            gc.drawImage(spectrogramImage, 0, 0, nextColumn, spectrogramHeight, oldest, 0, nextColumn, spectrogramHeight);
         }
     }
 
-    /**
-     * Convert a double array to a Complex array.
-     * @param array The input double array.
-     * @return The resulting Complex array.
-     */
-    private Complex[] toComplexArray(double[] array) {
-        return Arrays.stream(array).mapToObj(value -> new Complex(value, 0)).toArray(Complex[]::new);
+    /** Builds a black - blue - red - yellow - white color map of the given size, as opaque ARGB values. */
+    private static int[] createColormap(int size) {
+        Color[] stops = {Color.BLACK, Color.web("#1b0c41"), Color.web("#781c6d"),
+                Color.web("#ed6925"), Color.web("#fcffa4"), Color.WHITE};
+        int[] colormap = new int[size];
+        for (int i = 0; i < size; i++) {
+            double position = (double) i / (size - 1) * (stops.length - 1);
+            int stop = Math.min((int) position, stops.length - 2);
+            Color color = stops[stop].interpolate(stops[stop + 1], position - stop);
+            colormap[i] = 0xFF000000
+                    | (int) Math.round(color.getRed() * 255) << 16
+                    | (int) Math.round(color.getGreen() * 255) << 8
+                    | (int) Math.round(color.getBlue() * 255);
+        }
+        return colormap;
     }
-}
\ No newline at end of file
+}